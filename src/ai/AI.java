@@ -8,9 +8,32 @@ public interface AI {
     /**
      * Called when your AI should decide on its move.
      * @param board The current state of the board.
-     * @return The move the AI wants to make.
+     * @return The move the AI wants to make, or null if the player to move has no valid move.
      */
     Move nextMove(State board);
 
+    /**
+     * Asks a search running in nextMove() on another thread, or pondering, to stop as soon as it can. nextMove() then
+     * returns a move straight away, which the caller may ignore. AIs that answer quickly need not do anything.
+     */
+    default void cancel() {
+    }
+
+    /**
+     * Sets who to tell about the progress of each search.
+     * AIs that don't search need not do anything.
+     * @param listener The listener, or null for none.
+     */
+    default void setProgressListener(ProgressListener listener) {
+    }
+
+    /**
+     * Called after your AI has moved, when the opponent is to move, so that it can think on the opponent's time.
+     * Thinking must happen on another thread, and stop when nextMove() or cancel() is called.
+     * AIs that don't search need not do anything.
+     * @param board The current state of the board, with the opponent to move.
+     */
+    default void ponder(State board) {
+    }
 
 }
@@ -12,4 +12,11 @@ public class Aggressive extends MinMaxingAI {
     public int heuristic(State toBoard, int us, int them) {
         return 1000-(toBoard.countPieces(them));
     }
+
+    @Override
+    protected int futilityMargin(State board, int move, int us, int them) {
+        // Our move takes away the pieces it infects from them; theirs adds those and the clone.
+        if (board.whoseTurn() == us) return board.infects(move);
+        return board.infects(move) + (State.isJump(move) ? 0 : 1);
+    }
 }
@@ -0,0 +1,77 @@
+package ai;
+
+import model.MoveList;
+import model.State;
+
+/**
+ * The usual move ordering: the cached best move first, then moves that infect enemy pieces (biggest gain first, and
+ * clones before jumps), then the killer moves for this ply, then everything else by its history score.
+ *
+ * Killer moves are the last two quiet moves that caused a cut-off at the same ply - sibling positions tend to be
+ * refuted by the same move. The history table counts how often each from/to pair has caused a cut-off anywhere,
+ * weighted towards cut-offs high in the tree.
+ */
+public class DefaultMoveOrdering implements MoveOrdering {
+
+    // Score tiers, so that each kind of move always comes before the next.
+    static final int CACHED = 1 << 30;
+    static final int INFECTING = 1 << 29;
+    static final int KILLER = 1 << 28;
+    static final int HISTORY_LIMIT = (1 << 27) - 1;
+
+    static final int MAX_PLY = 128;
+
+    int[][] killers;   // [ply][0 or 1], packed moves
+    int[] history;     // [packed move]
+
+    public DefaultMoveOrdering() {
+        killers = new int[MAX_PLY][2];
+        history = new int[1 << 14];
+    }
+
+    @Override
+    public void order(State board, MoveList moves, int cachedMove, int ply) {
+        int[] plyKillers = killers[Math.min(ply, MAX_PLY - 1)];
+        for (int i=0; i<moves.size(); i++) {
+            int move = moves.get(i);
+            int clone = State.isJump(move) ? 0 : 1;
+            int infects = board.infects(move);
+            int score;
+            if (move == cachedMove) {
+                score = CACHED;
+            } else if (infects > 0) {
+                // A clone gains one more piece than a jump with the same infections.
+                score = INFECTING + ((infects + clone) << 1) + clone;
+            } else if ((move == plyKillers[0]) || (move == plyKillers[1])) {
+                score = KILLER + ((move == plyKillers[0]) ? 1 : 0);
+            } else {
+                score = (Math.min(history[move], HISTORY_LIMIT >> 1) << 1) + clone;
+            }
+            moves.setScore(i, score);
+        }
+    }
+
+    @Override
+    public void cutoff(State board, int move, int ply, int level) {
+        // Infecting moves are already tried early, so only quiet moves are worth remembering.
+        if (board.infects(move) > 0) return;
+        int[] plyKillers = killers[Math.min(ply, MAX_PLY - 1)];
+        if (plyKillers[0] != move) {
+            plyKillers[1] = plyKillers[0];
+            plyKillers[0] = move;
+        }
+        history[move] = Math.min(history[move] + (level + 1) * (level + 1), HISTORY_LIMIT >> 1);
+    }
+
+    @Override
+    public void newSearch() {
+        // Killers are specific to the last position, but history is still roughly right, so just fade it.
+        for (int[] plyKillers : killers) {
+            plyKillers[0] = 0;
+            plyKillers[1] = 0;
+        }
+        for (int i=0; i<history.length; i++) {
+            history[i] >>= 1;
+        }
+    }
+}
@@ -13,4 +13,11 @@ public class Defensive extends MinMaxingAI {
     public int heuristic(State toBoard, int us, int them) {
         return (toBoard.countPieces(us));
     }
+
+    @Override
+    protected int futilityMargin(State board, int move, int us, int them) {
+        // Our move adds the pieces it infects and the clone to ours; theirs takes away the pieces it infects.
+        if (board.whoseTurn() == us) return board.infects(move) + (State.isJump(move) ? 0 : 1);
+        return board.infects(move);
+    }
 }
@@ -1,29 +1,29 @@
 package ai;
 
 import model.Move;
+import model.MoveList;
 import model.State;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 public class Dumbass implements AI {
 
     Random random;
+    MoveList moves;
 
     public Dumbass() {
         random = new Random();
+        moves = new MoveList();
     }
 
 
     @Override
     public Move nextMove(State board) {
-        /* Get list of valid moves. */
-        ArrayList<Move> moves = board.validMoves();
-
-        /* Pick one at random. */
-        int index;
-        if (moves.size() == 1) index = 0;
-            else index = random.nextInt(moves.size()-1);
-        return moves.get(index);
+        /* Get list of valid moves. Clones to the same square are only listed once, so every move leads somewhere different. */
+        board.generateMoves(moves);
+
+        /* Pick one at random, or none if there are none. */
+        if (moves.size() == 0) return null;
+        return Move.unpack(moves.get(random.nextInt(moves.size())));
     }
 }
@@ -0,0 +1,275 @@
+package ai;
+
+import model.MoveList;
+import model.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Solves positions near the end of the game: rather than rating positions with a heuristic, it plays every line out
+ * to the end of the game and finds the final piece difference with best play by both sides, as long as neither side
+ * needs more jumps than the solve allows. That is exact for play within the jump limit, not for the game itself,
+ * unless no line the solve examined was cut short by the limit; exact() tells which.
+ *
+ * The search is a negamax alpha-beta over piece differences, from the point of view of the player to move. A game
+ * ends when the player to move has no moves, and the other player then claims every empty square. Since a jump leaves
+ * as many empty squares as there were, lines of jumps could go on forever, so each line may only contain a limited
+ * number of jumps. Once the jumps are used up only clones are tried, and a position where only jumps are left is
+ * rated by its piece difference as it stands, although the game is not over there. With clones only the game always
+ * ends within as many moves as there are empty squares. Jumps matter a great deal in the endgame, so solveDeepening()
+ * allows as many as a node budget affords.
+ *
+ * Moves are ordered by how much they gain at once (infections, and one more piece for a clone), after the best move
+ * from the solver's own small transposition table, which keeps the bounds found for each position.
+ *
+ * An EndgameSolver is used by one thread at a time; each searcher has its own.
+ */
+public class EndgameSolver {
+
+    // Piece differences run from -100 to 100, so this is beyond any result.
+    static final int INFINITY = 1000;
+
+    // Returned by solveDeepening() when not even the solve with no jumps could be finished.
+    public static final int UNSOLVED = Integer.MIN_VALUE;
+
+    static final BooleanSupplier NEVER = () -> false;
+
+    // The most jumps a line may contain.
+    static final int MAX_JUMPS = 15;
+
+    static final int TABLE_BITS = 16;
+
+    // Ordering score for the move the table says was best last time.
+    static final int CACHED = 1 << 20;
+
+    // Keys of positions with different numbers of jumps left are kept apart in the table by XORing these in.
+    // Results for a number of jumps left don't depend on how many were allowed at the start, so they stay good as
+    // solveDeepening() allows more.
+    static final long[] JUMP_KEYS = new long[MAX_JUMPS + 1];
+
+    static {
+        Random rnd = new Random(0x5017E4L);
+        for (int i=0; i<JUMP_KEYS.length; i++) JUMP_KEYS[i] = rnd.nextLong();
+    }
+
+    // The transposition table: Zobrist key, lower and upper bound packed as (lower << 16) | (upper & 0xFFFF), and
+    // best move, for each slot. Each position has one slot, always overwritten.
+    final long[] keys = new long[1 << TABLE_BITS];
+    final int[] bounds = new int[1 << TABLE_BITS];
+    final int[] moves = new int[1 << TABLE_BITS];
+    // Whether the result in each slot depends on a line cut short by the jump limit.
+    final boolean[] cutShort = new boolean[1 << TABLE_BITS];
+
+    // A move list and undo record for each ply, added as deeper solves need them.
+    MoveList[] moveLists = new MoveList[0];
+    State.Undo[] undos = new State.Undo[0];
+    State board;
+    long nodes;
+    long nodeLimit = Long.MAX_VALUE;   // Solving stops, with aborted set, once nodes passes this
+    BooleanSupplier stop = NEVER;      // Asked every so often whether solving should stop, with aborted set
+    boolean aborted;
+    int bestMove;   // Best move from the position last solved, packed
+    int jumps;      // Jumps each line could contain in the last solve
+    boolean limited;   // Whether a line of the last solve was cut short by the jump limit
+
+    /**
+     * Solves a position. The board is played on and put back as it was.
+     *
+     * The result is exact if it is strictly inside the window. If it is at or below alpha, the true result is at most
+     * the value returned; if it is at or above beta, the true result is at least the value returned. To just find
+     * out who wins, search the window (0, 1).
+     * @param board The position.
+     * @param alpha The lower end of the window.
+     * @param beta The upper end of the window.
+     * @param jumps How many jumps each line may contain, from 0 to MAX_JUMPS.
+     * @return The final number of pieces of the player to move, minus the opponent's, with best play.
+     */
+    public int solve(State board, int alpha, int beta, int jumps) {
+        assert (jumps >= 0) && (jumps <= MAX_JUMPS) : "solve called with " + jumps + " jumps";
+        this.board = board;
+        this.jumps = jumps;
+        // Each clone fills an empty square, so no line is longer than this.
+        int plies = board.countPieces(0) + jumps + 1;
+        if (moveLists.length < plies) {
+            int old = moveLists.length;
+            moveLists = Arrays.copyOf(moveLists, plies);
+            undos = Arrays.copyOf(undos, plies);
+            for (int i=old; i<plies; i++) {
+                moveLists[i] = new MoveList();
+                undos[i] = new State.Undo();
+            }
+        }
+        bestMove = 0;
+        limited = false;
+        return solve(alpha, beta, jumps, 0);
+    }
+
+    /**
+     * Solves a position, allowing no jumps and then one more jump in each line at a time until the node budget runs
+     * out or it is told to stop, and keeps the result of the last solve that finished. Each solve reuses most of the
+     * work of the one before through the table. A solve with no line cut short by the jump limit is exact, so more
+     * jumps would change nothing and it stops there.
+     * @param board The position.
+     * @param nodeBudget The most positions to examine, in all the solves together.
+     * @param stop Asked every so often whether to stop early, such as for a deadline or a cancelled move.
+     * @return The final number of pieces of the player to move, minus the opponent's, with best play, or UNSOLVED if
+     *         even the solve with no jumps ran out of budget. bestMove(), jumps() and exact() then mean nothing.
+     */
+    public int solveDeepening(State board, long nodeBudget, BooleanSupplier stop) {
+        long limit = nodes + nodeBudget;
+        int result = UNSOLVED;
+        int move = 0;
+        int finished = 0;
+        boolean finishedLimited = true;
+        nodeLimit = limit;
+        this.stop = stop;
+        for (int j=0; (j<=MAX_JUMPS) && (nodes < limit); j++) {
+            int rating = solve(board, -INFINITY, INFINITY, j);
+            if (aborted) {
+                aborted = false;
+                break;
+            }
+            result = rating;
+            move = bestMove;
+            finished = j;
+            finishedLimited = limited;
+            if (!limited) break;
+        }
+        nodeLimit = Long.MAX_VALUE;
+        this.stop = NEVER;
+        bestMove = move;
+        jumps = finished;
+        limited = finishedLimited;
+        return result;
+    }
+
+    /**
+     * Gets the best move from the position last solved. If the result was outside the window this is only the move
+     * that proved the bound.
+     * @return The move, packed with Move.pack(), or 0 if the player to move had none.
+     */
+    public int bestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Gets how many jumps each line could contain in the last solve.
+     */
+    public int jumps() {
+        return jumps;
+    }
+
+    /**
+     * Checks whether the last solve is exact for the game itself, and not only for play within the jump limit: no
+     * line it examined had to leave out a jump.
+     */
+    public boolean exact() {
+        return !limited;
+    }
+
+    /**
+     * Gets the number of positions examined by all solves so far.
+     */
+    public long nodes() {
+        return nodes;
+    }
+
+    /**
+     * Forgets every position in the table.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(bounds, 0);
+        Arrays.fill(moves, 0);
+        Arrays.fill(cutShort, false);
+    }
+
+    int solve(int alpha, int beta, int jumpsLeft, int ply) {
+        nodes++;
+        if ((nodes > nodeLimit) || (((nodes & 1023) == 0) && stop.getAsBoolean())) {
+            // Out of budget. Nothing found from here on can be trusted, so unwind without storing anything.
+            aborted = true;
+            return 0;
+        }
+        int us = board.whoseTurn();
+        int them = board.whoseNotTurn();
+
+        long key = board.zobristKey() ^ JUMP_KEYS[jumpsLeft];
+        int slot = (int) key & ((1 << TABLE_BITS) - 1);
+        int cachedMove = 0;
+        if (keys[slot] == key) {
+            int lower = bounds[slot] >> 16;
+            int upper = (short) bounds[slot];
+            if ((lower >= beta) || (lower == upper)) {
+                if (ply == 0) bestMove = moves[slot];
+                limited |= cutShort[slot];
+                return lower;
+            }
+            if (upper <= alpha) {
+                limited |= cutShort[slot];
+                return upper;
+            }
+            cachedMove = moves[slot];
+        }
+
+        MoveList list = moveLists[ply];
+        board.generateMoves(list);
+        if (list.size() == 0) {
+            // Stuck: the game is over, and the opponent claims the empty squares.
+            return board.countPieces(us) - board.countPieces(them) - board.countPieces(0);
+        }
+
+        // Score the moves by what they gain at once. With no jumps left, jumps are scored below every clone and never
+        // reached, which cuts those lines short. Whether this position's result depends on a line cut short is
+        // worked out apart from the rest of the solve, to be kept in the table with it.
+        boolean outerLimited = limited;
+        limited = false;
+        int count = 0;
+        for (int i=0; i<list.size(); i++) {
+            int move = list.get(i);
+            boolean jump = State.isJump(move);
+            if (jump && (jumpsLeft == 0)) {
+                list.setScore(i, Integer.MIN_VALUE);
+                limited = true;
+                continue;
+            }
+            int gain = 2 * board.infects(move) + (jump ? 0 : 1);
+            list.setScore(i, (move == cachedMove) ? CACHED : (gain << 1) + (jump ? 0 : 1));
+            count++;
+        }
+        if (count == 0) {
+            // Only jumps are left, and this line can't have any more.
+            return board.countPieces(us) - board.countPieces(them);
+        }
+
+        int best = -INFINITY;
+        int bestSoFar = 0;
+        for (int i=0; i<count; i++) {
+            list.selectBest(i);
+            int move = list.get(i);
+            int left = State.isJump(move) ? jumpsLeft - 1 : jumpsLeft;
+            State.Undo undo = board.make(move, undos[ply]);
+            int rating = -solve(-beta, -Math.max(alpha, best), left, ply + 1);
+            board.unmake(undo);
+            if (aborted) return 0;
+            if (rating > best) {
+                best = rating;
+                bestSoFar = move;
+                if (best >= beta) break;
+            }
+        }
+
+        // Keep what we learnt: an exact result, or a bound if the search failed high or low.
+        int lower = (best > alpha) ? best : -INFINITY;
+        int upper = (best < beta) ? best : INFINITY;
+        keys[slot] = key;
+        bounds[slot] = (lower << 16) | (upper & 0xFFFF);
+        moves[slot] = bestSoFar;
+        cutShort[slot] = limited;
+        limited |= outerLimited;
+        if (ply == 0) bestMove = bestSoFar;
+        return best;
+    }
+}
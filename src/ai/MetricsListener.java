@@ -0,0 +1,14 @@
+package ai;
+
+/**
+ * Told what each search did, once it has finished.
+ * Metrics are reported from the thread running the search, not the thread that added the listener.
+ */
+public interface MetricsListener {
+
+    /**
+     * Called when a search has finished, including searches made while pondering.
+     * @param metrics What the search did.
+     */
+    void searchFinished(SearchMetrics metrics);
+}
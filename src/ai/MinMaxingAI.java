@@ -1,49 +1,955 @@
 package ai;
 
 import model.Move;
+import model.MoveList;
 import model.State;
 
-import java.util.*;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class MinMaxingAI implements AI {
 
     /**
-     * Inner class used to store a move, its eventual heuristic rating, and the depth to which it was explored.
+     * Inner class holding everything one thread needs to search: its own board, undo records, move lists, move
+     * ordering and statistics. Everything else - the cache, budgets, and who we are - is shared by all searchers.
      */
-    class RatedMove {
-        Move move;
-        int rating;
-        int depth;
+    class Searcher implements Runnable {
+
+        // The search works on a single board, making moves on it and taking them back again, instead of creating a
+        // new State for every position. The undo records and move lists for each ply are kept and reused, so once they
+        // have been set up, searching a position does not allocate anything.
+        State searchBoard;
+        int ply;
+        State.Undo[] undos;
+        MoveList[] moveLists;
+
+        // Decides which order moves are tried in.
+        MoveOrdering ordering;
+
+        // Plays out positions with few empty squares to the end. Made when first needed.
+        EndgameSolver solver;
+
+        // The best move found by the most recent call to moveSearch(), packed with Move.pack(), or 0 if there was none.
+        int foundMove;
+
+        // For statistics, see SearchMetrics.
+        int states, alphas, betas, probes, hits, overdrives, crashes, heuristicCalls, solves;
+        int researches, failHighs, failLows, reductions, futilityPrunes, quiescenceStates;
+        long[] cutoffs = new long[MAX_DEPTH + 2];   // Cut-offs at each ply
+        int quiescenceLeft;   // States the current quiescence search may still examine
+
+        // Iterative deepening state for the current search.
+        boolean aborted;   // Set when the current iteration ran out of budget and its results must be thrown away
+        boolean mayAbort;  // Budgets are only enforced once at least one iteration has finished
+        int firstLevel;    // The level this searcher starts deepening from
+        int maxLevel;      // The level this searcher stops at
+        int completedDepth;
+        int best;          // Best move from the deepest completed level, packed
+        int bestRating;    // and its rating
+
+        // Split mode state, see setSplitThreads().
+        boolean splitting;   // True if deep enough nodes are shared out between threads
+        boolean exactDepth;  // True if only cached ratings of exactly the depth wanted may be used
+        Split split;         // The split node this searcher is working under, or null for the root
+        long waitNanos;      // Processor time spent waiting for other threads to finish split work
+
+        Searcher() {
+            undos = new State.Undo[0];
+            moveLists = new MoveList[0];
+            ordering = createMoveOrdering();
+        }
+
+        /**
+         * Gets this searcher ready to search a position.
+         * @param board The position to search. The searcher takes its own copy.
+         * @param firstLevel The level to start deepening from.
+         * @param maxLevel The level to stop at.
+         * @param helper True for a helper thread, which may be stopped at any time since its moves are never played.
+         */
+        void prepare(State board, int firstLevel, int maxLevel, boolean helper) {
+            clearStats();
+            searchBoard = new State(board);
+            if (symmetricCache) searchBoard.trackSymmetries();
+            ply = 0;
+            ensurePlies(maxLevel + 2 + QUIESCENCE_PLIES);
+            ordering.newSearch();
+            this.firstLevel = firstLevel;
+            this.maxLevel = maxLevel;
+            aborted = false;
+            mayAbort = helper;
+            completedDepth = 0;
+            best = 0;
+            bestRating = 0;
+            splitting = (splitPool != null) && !helper;
+            exactDepth = (splitPool != null);
+            split = null;
+        }
+
+        /**
+         * Gets this searcher ready to search one move shared out from a split node.
+         * @param board The position after the move. The searcher takes its own copy.
+         * @param split The split node the move belongs to.
+         */
+        void prepareTask(State board, Split split) {
+            clearStats();
+            searchBoard = new State(board);
+            if (symmetricCache) searchBoard.trackSymmetries();
+            ply = 0;
+            ensurePlies(MAX_DEPTH + 2 + QUIESCENCE_PLIES);
+            aborted = false;
+            mayAbort = true;
+            splitting = true;
+            exactDepth = true;
+            this.split = split;
+            waitNanos = 0;
+        }
+
+        void clearStats() {
+            states = 0;
+            alphas = 0;
+            betas = 0;
+            probes = 0;
+            hits = 0;
+            overdrives = 0;
+            crashes = 0;
+            heuristicCalls = 0;
+            solves = 0;
+            researches = 0;
+            failHighs = 0;
+            failLows = 0;
+            reductions = 0;
+            futilityPrunes = 0;
+            quiescenceStates = 0;
+            Arrays.fill(cutoffs, 0);
+        }
+
+        /**
+         * Adds the statistics of another searcher to this one's.
+         * @param other The other searcher.
+         * @param plyOffset The ply of this searcher's search that the other searcher's search started at.
+         */
+        void addStats(Searcher other, int plyOffset) {
+            states += other.states;
+            alphas += other.alphas;
+            betas += other.betas;
+            probes += other.probes;
+            hits += other.hits;
+            overdrives += other.overdrives;
+            crashes += other.crashes;
+            heuristicCalls += other.heuristicCalls;
+            solves += other.solves;
+            researches += other.researches;
+            failHighs += other.failHighs;
+            failLows += other.failLows;
+            reductions += other.reductions;
+            futilityPrunes += other.futilityPrunes;
+            quiescenceStates += other.quiescenceStates;
+            for (int i=0; i+plyOffset<cutoffs.length; i++) {
+                cutoffs[i + plyOffset] += other.cutoffs[i];
+            }
+        }
+
+        /**
+         * Makes sure there is an undo record and a move list for each ply of a search.
+         * @param plies The number of plies the search can reach.
+         */
+        void ensurePlies(int plies) {
+            if (undos.length >= plies) return;
+            State.Undo[] newUndos = new State.Undo[plies];
+            MoveList[] newMoveLists = new MoveList[plies];
+            for (int i=0; i<plies; i++) {
+                newUndos[i] = (i < undos.length) ? undos[i] : new State.Undo();
+                newMoveLists[i] = (i < moveLists.length) ? moveLists[i] : new MoveList();
+            }
+            undos = newUndos;
+            moveLists = newMoveLists;
+        }
+
+        /**
+         * Iterative deepening: search one ply, then the next ply down, and so on. Each iteration fills the cache with
+         * the best move in each position, which the next iteration tries first, so the earlier iterations pay for
+         * themselves in cut-offs. If an iteration runs out of budget, the best move from the last one that finished is
+         * kept. A ply is two levels, so the levels go up two at a time, ending on maxLevel.
+         */
+        @Override
+        public void run() {
+            boolean main = (this == searchers[0]);
+            if (searchBoard.countPieces(0) <= endgameEmpties) {
+                // Near the end of the game the whole game can be played out, which beats searching to any depth. If
+                // that can't be done within the budget, the main searcher searches as usual instead.
+                if (!main || solveRoot()) return;
+            }
+            // An odd level reaches as many plies as the even level before it, so only one of each pair is searched.
+            for (int level=firstLevel + ((maxLevel - firstLevel) & 1); level<=maxLevel; level+=2) {
+                long start = System.nanoTime();
+                long startCpu = splitting ? cpuNanos() : 0;
+                int startStates = states;
+                waitNanos = 0;
+                splitBusyNanos.set(0);
+                int rating = searchRoot(level);
+                if (aborted) break;
+                if (main) {
+                    // Record how long the level took, and in split mode how much searching was done in that time by
+                    // all threads together, for the metrics.
+                    levelNanos[level] = System.nanoTime() - start;
+                    levelStates[level] = states - startStates;
+                    if (splitting) levelBusyNanos[level] = (cpuNanos() - startCpu - waitNanos) + splitBusyNanos.get();
+                }
+                if (foundMove != 0) {
+                    best = foundMove;
+                    bestRating = rating;
+                }
+                completedDepth = level;
+                mayAbort = true;
+                if (main && (progressListener != null) && (best != 0) && !ponderSearch) {
+                    progressListener.searchProgress(level, states, System.nanoTime() - searchStart, Move.unpack(best));
+                }
+                if (outOfBudget(this)) break;
+            }
+        }
+
+        /**
+         * Searches the root to the given level. Once a level has finished, the next is searched with an aspiration
+         * window: a narrow alpha-beta window around the last level's rating, which cuts off much more. If the rating
+         * falls outside the window it is only a bound, so the window is widened on that side and the level searched
+         * again, until the rating falls inside it.
+         * @param level The level to search to.
+         * @return The rating of the best move, left in foundMove.
+         */
+        int searchRoot(int level) {
+            // Alpha (best maximum at a minimizing node) and beta (best minimum at a maximising node) start at the
+            // "worst" possible values, unless there is an earlier level to go by.
+            if ((aspirationWindow == 0) || (completedDepth == 0)) return moveSearch(level, -9999, 9999);
+            int window = aspirationWindow;
+            int low = Math.max(bestRating - window, -9999);
+            int high = Math.min(bestRating + window, 9999);
+            while (true) {
+                int rating = moveSearch(level, low, high);
+                if (aborted) return rating;
+                if ((rating <= low) && (low > -9999)) {
+                    failLows++;
+                    window *= 2;
+                    low = Math.max(rating - window, -9999);
+                } else if ((rating >= high) && (high < 9999)) {
+                    failHighs++;
+                    window *= 2;
+                    high = Math.min(rating + window, 9999);
+                } else {
+                    return rating;
+                }
+            }
+        }
+
+        /**
+         * Calculates the eventual heuristic rating for a given move from the search board.
+         * @param theMove The move to consider making, packed with Move.pack().
+         * @param level How many recursive levels to explore after that move.
+         * @param inAlpha The alpha cut-off value.
+         * @param inBeta The beta cut-off value.
+         * @return The integer rating for the move.
+         */
+        int rateMove(int theMove, int level, int inAlpha, int inBeta) {
+            State.Undo undo = searchBoard.make(theMove, undos[ply]);
+            ply++;
+            int rating = ratePosition(level, inAlpha, inBeta);
+            ply--;
+            searchBoard.unmake(undo);
+            return rating;
+        }
+
+        /**
+         * Calculates the eventual heuristic rating of the search board, just after a move has been made on it.
+         * @param level How many recursive levels to explore from here.
+         * @param inAlpha The alpha cut-off value.
+         * @param inBeta The beta cut-off value.
+         * @return The integer rating for the position.
+         */
+        int ratePosition(int level, int inAlpha, int inBeta) {
+            State newBoard = searchBoard;
+
+            int over = gameOverRating(newBoard);
+            if (over != NOT_OVER) return over;
+            // Ok, we could potentially recurse. Do we have recursive levels left?
+            if (level > 0) {
+                // Yes, recurse and return result. A stuck player has been dealt with above, so there are moves to search.
+                return moveSearch(level-1,inAlpha,inBeta);
+            } else if (quiescenceInfects > 0) {
+                // Reached recursion limit, but the heuristic can't be trusted while big infections are still to be had.
+                quiescenceLeft = QUIESCENCE_STATES;
+                return quiesce(inAlpha, inBeta, QUIESCENCE_PLIES);
+            } else {
+                // Reached recursion limit, use the heuristic.
+                heuristicCalls++;
+                return heuristic(newBoard, us, them);
+            }
+        }
+
+        /**
+         * Checks whether a move from the search board leaves the next player with no moves, which ends the game there
+         * with a win or a loss rather than a heuristic rating.
+         * @param theMove The move, packed with Move.pack().
+         * @return True if the player to move after it is stuck.
+         */
+        boolean leavesNextPlayerStuck(int theMove) {
+            State.Undo undo = searchBoard.make(theMove, undos[ply]);
+            boolean stuck = !searchBoard.hasValidMoves();
+            searchBoard.unmake(undo);
+            return stuck;
+        }
+
+        /**
+         * Checks whether the game is decided in a position.
+         * @param newBoard The position.
+         * @return The rating of the position if the game is decided, or NOT_OVER if play goes on.
+         */
+        int gameOverRating(State newBoard) {
+            int ours = newBoard.countPieces(us);
+            int theirs = newBoard.countPieces(them);
+
+            // Following are conditions under which we win/lose immediately. We don't put these in the heuristic because
+            // if we encounter one, we should stop recursing no matter what (the heuristic is only used when we reach
+            // the end of the recursion)
+            // Enemy out of pieces, we win.
+            if (theirs == 0) return 9998;
+            // Board full: we have more pieces, we win; we have less, we lose.
+            if (ours+theirs == 100) {
+                if (ours > 50) return 9998;
+                return 0;
+            }
+            // Next turn has no moves: other player claims all open spaces.
+            // If that gives us more, we win; else, we lose.
+            if (!newBoard.hasValidMoves()) {
+                int rest = (100 - ours) - theirs;
+                if (newBoard.whoseTurn() == them) {
+                    if ((ours+rest) > theirs) return 9998;
+                }   else {
+                    if (ours > (theirs+rest)) return 9998;
+                }
+                return 0;
+            }
+            return NOT_OVER;
+        }
+
+        /**
+         * Rates the search board at the search horizon by playing out the big infections still to be had, so that
+         * the heuristic isn't trusted in the middle of an exchange. Only moves infecting at least quiescenceInfects
+         * pieces are tried, biggest first, and the player to move may instead stand pat: stop and take the heuristic
+         * rating, since they don't have to make any of those moves. The search stops after QUIESCENCE_PLIES, or once
+         * quiescenceLeft states have been examined, and rates every position after that as it stands.
+         * @param inAlpha The alpha cut-off value.
+         * @param inBeta The beta cut-off value.
+         * @param pliesLeft How many more infections may be played out.
+         * @return The integer rating for the position.
+         */
+        int quiesce(int inAlpha, int inBeta, int pliesLeft) {
+            State fromBoard = searchBoard;
+            heuristicCalls++;
+            int standPat = heuristic(fromBoard, us, them);
+            if ((pliesLeft == 0) || (quiescenceLeft <= 0)) return standPat;
+            boolean ourTurn = (fromBoard.whoseTurn() == us);
+            if (ourTurn ? (standPat >= inBeta) : (standPat <= inAlpha)) return standPat;
+            int alpha = ourTurn ? Math.max(inAlpha, standPat) : inAlpha;
+            int beta = ourTurn ? inBeta : Math.min(inBeta, standPat);
+            int bestRating = standPat;
+
+            MoveList moves = moveLists[ply];
+            fromBoard.generateMoves(moves);
+            int count = 0;
+            for (int i=0; i<moves.size(); i++) {
+                int move = moves.get(i);
+                int infects = fromBoard.infects(move);
+                if (infects >= quiescenceInfects) {
+                    moves.setScore(i, (infects << 1) + (State.isJump(move) ? 0 : 1));
+                    count++;
+                } else {
+                    moves.setScore(i, Integer.MIN_VALUE);
+                }
+            }
+            for (int i=0; (i<count) && (quiescenceLeft > 0); i++) {
+                moves.selectBest(i);
+                int theMove = moves.get(i);
+                states++;
+                quiescenceStates++;
+                quiescenceLeft--;
+                State.Undo undo = fromBoard.make(theMove, undos[ply]);
+                ply++;
+                int rating = gameOverRating(fromBoard);
+                if (rating == NOT_OVER) rating = quiesce(alpha, beta, pliesLeft - 1);
+                ply--;
+                fromBoard.unmake(undo);
+                if (ourTurn) {
+                    bestRating = Math.max(bestRating, rating);
+                    alpha = Math.max(alpha, rating);
+                    if (alpha >= inBeta) break;
+                } else {
+                    bestRating = Math.min(bestRating, rating);
+                    beta = Math.min(beta, rating);
+                    if (inAlpha >= beta) break;
+                }
+            }
+            return bestRating;
+        }
+
+        /**
+         * Solves the search board with the endgame solver, instead of deepening. The solver finds the final piece
+         * difference, so when every move loses it still picks the one that loses by least. It allows as many jumps in
+         * each line as ENDGAME_NODES and the time budget afford. Only a solve that no jump limit cut short is rated as
+         * a won or lost game; otherwise the margin is kept as an estimate.
+         * @return False if not even the solve with no jumps could be finished, so the board has to be searched.
+         */
+        boolean solveRoot() {
+            if (solver == null) solver = new EndgameSolver();
+            long startNodes = solver.nodes();
+            int margin = solver.solveDeepening(searchBoard, ENDGAME_NODES, () -> outOfBudget(this));
+            solves++;
+            states += (int) (solver.nodes() - startNodes);
+            if (margin == EndgameSolver.UNSOLVED) return false;
+            best = solver.bestMove();
+            if (solver.exact()) {
+                // Every line was played to the end of the game, so it is decided, as in gameOverRating().
+                bestRating = (margin > 0) ? 9998 : 0;
+            } else {
+                // Some line left out a jump, so the margin is only an estimate: rate it between a loss and a win.
+                bestRating = UNDECIDED_ENDGAME + margin;
+            }
+            // As good as searching to the end of the game, so at least as good as the depth we'd otherwise search to.
+            completedDepth = Math.min(maxLevel, depth);
+            return true;
+        }
+
+        /**
+         * The actual recursive move search function, searching from the current position of the search board.
+         * The best move found is left in foundMove.
+         * @param level How many more levels of recursion to perform.
+         * @param inAlpha The alpha value at the root of this subtree.
+         * @param inBeta The beta value at the root of this subtree.
+         * @return The rating of the best move found so far.
+         */
+        int moveSearch(int level, int inAlpha, int inBeta) {
+            State fromBoard = searchBoard;
+            int alpha = inAlpha;
+            int beta = inBeta;
+
+            int bestSoFar = 0;
+            int bestRating, rating;
+
+            // In split mode the root's moves are put in the same order every time, so that of several equally good
+            // moves the same one is always played.
+            boolean splitRoot = splitting && (ply == 0) && (split == null);
+
+            // Zobrist hash this board, and check if the hash is already in the cache.
+            long zobrist = zobristHash(fromBoard);
+            int symmetry = symmetricCache ? fromBoard.canonicalSymmetry() : 0;
+            long cacheResult = cache.probe(zobrist);
+            probes++;
+            int cachedMove = 0;
+            if (cacheResult == 0) {
+                // Not there. Note if that's because other positions have taken its place.
+                if (cache.collides(zobrist)) crashes++;
+            } else {
+                // We've searched this state before! How did we do? The cached rating is only any use if it was
+                // searched at least as deep as we're about to, and it is exact or a bound that already settles this
+                // alpha-beta window.
+                int cachedDepth = TranspositionTable.depth(cacheResult);
+                int cachedRating = TranspositionTable.score(cacheResult);
+                int bound = TranspositionTable.bound(cacheResult);
+                boolean usable = (bound == TranspositionTable.EXACT)
+                        || ((bound == TranspositionTable.LOWER) && (cachedRating >= inBeta))
+                        || ((bound == TranspositionTable.UPPER) && (cachedRating <= inAlpha));
+                // In split mode only ratings searched to exactly this depth are used. A deeper rating may or may not
+                // have been stored yet depending on how the threads were scheduled, so using it would make the result
+                // depend on timing.
+                boolean deepEnough = exactDepth ? (cachedDepth == level) : (cachedDepth >= level);
+                if (usable && deepEnough && !splitRoot) {
+                    // We've found this before at a high level, so our previous search was actually better than the
+                    // one we're about to do! Or at the same level, in which case there's no point doing it again.
+                    if (cachedDepth > level) overdrives++; else hits++;
+                    foundMove = cachedMove(cacheResult, fromBoard, symmetry);
+                    return cachedRating;
+                }
+                // If we've found this before at a lower level, or with a bound that doesn't settle this window, meh.
+                // We need to explore it further, so go ahead with the search we were about to do - but the move
+                // ordering will try the move that was best last time first, since it probably still is.
+                cachedMove = cachedMove(cacheResult, fromBoard, symmetry);
+            }
+
+            // If it's our turn, start from the lowest possible rating (worst for us). If it's their turn, start from
+            // the highest possible rating (worst for them)
+            if (fromBoard.whoseTurn() == us) bestRating = -9999; else bestRating = 9999;
+
+            MoveList moves = moveLists[ply];
+            fromBoard.generateMoves(moves);
+            if (moves.size() == 0) {
+                // The player to move is stuck, so the game is over. gameOverRating() decides who has won.
+                foundMove = 0;
+                return gameOverRating(fromBoard);
+            }
+            if (splitRoot) {
+                createMoveOrdering().order(fromBoard, moves, best, ply);
+            } else {
+                ordering.order(fromBoard, moves, cachedMove, ply);
+            }
+            if (splitting && (level >= MIN_SPLIT_LEVEL) && (moves.size() > 1)) {
+                // Deep enough to be worth sharing out between threads.
+                bestRating = splitMoves(moves, level, inAlpha, inBeta, bestRating);
+                if (aborted) {
+                    foundMove = 0;
+                    return bestRating;
+                }
+                bestSoFar = foundMove;
+            } else {
+                // Futility pruning: at the horizon, where each move is rated by the heuristic straight away, a move
+                // that can't gain enough to lift the rating past the window isn't worth making. Not near the end of the
+                // game, where a move may win outright, nor when quiescence rates the moves instead of the heuristic.
+                boolean futile = futilityPruning && (level <= 1) && (ply > 0) && (quiescenceInfects == 0)
+                        && (fromBoard.countPieces(0) > FUTILITY_MIN_EMPTIES);
+                int standPat = NOT_OVER;
+                int searched = 0;
+                for (int i=0; i<moves.size(); i++) {
+                    moves.selectBest(i);
+                    int theMove = moves.get(i);
+                    int margin = futile ? futilityMargin(fromBoard, theMove, us, them) : NO_FUTILITY_MARGIN;
+                    if ((margin != NO_FUTILITY_MARGIN)
+                            && (fromBoard.infects(theMove) < fromBoard.countPieces(fromBoard.whoseNotTurn()))) {
+                        if (standPat == NOT_OVER) {
+                            heuristicCalls++;
+                            standPat = heuristic(fromBoard, us, them);
+                        }
+                        // The best the move could do is kept as a bound, in case every move is pruned.
+                        if ((fromBoard.whoseTurn() == us) && (standPat + margin <= alpha)
+                                && !leavesNextPlayerStuck(theMove)) {
+                            futilityPrunes++;
+                            bestRating = Math.max(bestRating, standPat + margin);
+                            continue;
+                        }
+                        if ((fromBoard.whoseTurn() == them) && (standPat - margin >= beta)
+                                && !leavesNextPlayerStuck(theMove)) {
+                            futilityPrunes++;
+                            bestRating = Math.min(bestRating, standPat - margin);
+                            continue;
+                        }
+                    }
+                    // Count states examined, and every so often check we still have time to examine more.
+                    states++;
+                    if (mayAbort && ((states & 1023) == 0) && outOfBudget(this)) aborted = true;
+                    if (aborted) {
+                        // Out of budget. Nothing found from here on can be trusted, so unwind without caching anything.
+                        foundMove = 0;
+                        return bestRating;
+                    }
+                    // Principal variation search: the first move is searched with the whole window. With good
+                    // ordering it is usually the best, so the others are only scouted with a null window, which just
+                    // proves they are no better and cuts off far more. A move that proves better is searched again
+                    // with the whole window to find its rating.
+                    // Late move reductions: a quiet move late in the ordering is unlikely to be best, so its scout
+                    // searches one ply less. If it surprises by proving better, it is scouted again to the full depth.
+                    boolean first = (searched++ == 0);
+                    int scoutLevel = level - 1;
+                    if (lateMoveReductions && (i >= LMR_MIN_MOVES) && (level >= LMR_MIN_LEVEL) && (ply > 0)
+                            && (fromBoard.infects(theMove) <= LMR_MAX_INFECTS)) {
+                        scoutLevel -= LMR_REDUCTION;
+                    }
+                    // If it's our turn..
+                    if (fromBoard.whoseTurn() == us) {
+                        // Calculate rating of this move (which may include recursion)
+                        if (first || (alpha + 1 >= inBeta)) {
+                            rating = rateMove(theMove, level - 1, alpha, inBeta);
+                        } else {
+                            rating = rateMove(theMove, scoutLevel, alpha, alpha + 1);
+                            if ((scoutLevel < level - 1) && !aborted) {
+                                reductions++;
+                                if (rating > alpha) rating = rateMove(theMove, level - 1, alpha, alpha + 1);
+                            }
+                            if ((rating > alpha) && (rating < inBeta) && !aborted) {
+                                researches++;
+                                rating = rateMove(theMove, level - 1, alpha, inBeta);
+                            }
+                        }
+                        if (aborted) {
+                            // The move's search was cut short, so its rating means nothing. Unwind before it can
+                            // move the window or reach the cache.
+                            foundMove = 0;
+                            return bestRating;
+                        }
+                        // Keep alpha up to date with the best move found so far.
+                        alpha = Math.max(alpha, rating);
+                        if ((rating > bestRating)) {
+                            bestRating = rating;
+                            bestSoFar = theMove;
+                        }
+                        // If alpha>beta then it is pointless to continue examining this state. We assume the opponent
+                        // will not allow us to get into this state in the first place because we have already found a
+                        // way they can make things worse for us.
+                        if (alpha >= inBeta) {
+                            betas++;
+                            cutoffs[ply]++;
+                            ordering.cutoff(fromBoard, theMove, ply, level);
+                            break;
+                        }
+                    } else { // If it's their turn..
+                        if (first || (inAlpha >= beta - 1)) {
+                            rating = rateMove(theMove, level - 1, inAlpha, beta);
+                        } else {
+                            rating = rateMove(theMove, scoutLevel, beta - 1, beta);
+                            if ((scoutLevel < level - 1) && !aborted) {
+                                reductions++;
+                                if (rating < beta) rating = rateMove(theMove, level - 1, beta - 1, beta);
+                            }
+                            if ((rating < beta) && (rating > inAlpha) && !aborted) {
+                                researches++;
+                                rating = rateMove(theMove, level - 1, inAlpha, beta);
+                            }
+                        }
+                        if (aborted) {
+                            // As above: a rating cut short must not be used.
+                            foundMove = 0;
+                            return bestRating;
+                        }
+                        // Keep beta up to date with the worst (for us, best for opponent) move found so far.
+                        beta = Math.min(beta,rating);
+                        if ((rating < bestRating)) {
+                            bestRating = rating;
+                            bestSoFar = theMove;
+                        }
+                        // If alpha>beta then it is pointless to continue examining this state. Getting into this state
+                        // in the first place is a bad idea because there are other states we've found where the
+                        // opponent's worst move is better for us.
+                        if (inAlpha >= beta) {
+                            alphas++;
+                            cutoffs[ply]++;
+                            ordering.cutoff(fromBoard, theMove, ply, level);
+                            break;
+                        }
+                    }
+                }
+            }
+            // Store the result in the cache, and return it
+            if (bestSoFar != 0) {
+                // A rating outside the window we were given is only a bound: the search stopped early on a cut-off,
+                // or every move was worse than a line we already had elsewhere.
+                int bound = TranspositionTable.EXACT;
+                if (bestRating >= inBeta) bound = TranspositionTable.LOWER;
+                else if (bestRating <= inAlpha) bound = TranspositionTable.UPPER;
+                // Note that this may overwrite a previous cache entry for this or another position.
+                // That's ok - at the start of this method we already checked to see if there was an existing relevant
+                // entry.
+                int storedMove = symmetricCache ? State.symmetricMove(bestSoFar, symmetry) : bestSoFar;
+                cache.store(zobrist, storedMove, bestRating, level, bound, fromBoard.countPieces(0));
+            }
+            foundMove = bestSoFar;
+            return bestRating;
+        }
+
+        /**
+         * Searches the moves of a split node, sharing them out between threads ("young brothers wait"). The first
+         * (eldest) move is searched on this thread, to get a bound; the rest are then searched in parallel, all
+         * within that bound. As soon as one of them causes a cut-off the others are cancelled.
+         * Since every younger brother gets the same window whichever order they finish in, and the results are
+         * combined in move order, the result is the same as searching the moves one after another.
+         * The best move found is left in foundMove.
+         * @param moves The moves of the node, already ordered.
+         * @param level How many more levels of recursion to perform.
+         * @param inAlpha The alpha value at the root of this subtree.
+         * @param inBeta The beta value at the root of this subtree.
+         * @param bestRating The worst possible rating for whoever is to move.
+         * @return The rating of the best move found.
+         */
+        int splitMoves(MoveList moves, int level, int inAlpha, int inBeta, int bestRating) {
+            State fromBoard = searchBoard;
+            boolean ourTurn = (fromBoard.whoseTurn() == us);
+            int alpha = inAlpha;
+            int beta = inBeta;
+
+            // The eldest brother.
+            moves.selectBest(0);
+            int eldest = moves.get(0);
+            states++;
+            int rating = rateMove(eldest, level - 1, alpha, beta);
+            if (aborted) return bestRating;
+            bestRating = rating;
+            foundMove = eldest;
+            if (ourTurn) alpha = Math.max(alpha, rating); else beta = Math.min(beta, rating);
+            if (alpha >= beta) {
+                if (ourTurn) betas++; else alphas++;
+                cutoffs[ply]++;
+                ordering.cutoff(fromBoard, eldest, ply, level);
+                return bestRating;
+            }
+
+            // The younger brothers.
+            Split node = new Split(split, ourTurn, alpha, beta);
+            SplitTask[] tasks = new SplitTask[moves.size() - 1];
+            for (int i=1; i<moves.size(); i++) {
+                moves.selectBest(i);
+                int theMove = moves.get(i);
+                State.Undo undo = fromBoard.make(theMove, undos[ply]);
+                tasks[i - 1] = new SplitTask(node, fromBoard, theMove, level - 1);
+                fromBoard.unmake(undo);
+            }
+            states += tasks.length;
+            // While waiting this thread may search some of the moves itself; that time is counted by the tasks.
+            long start = cpuNanos();
+            ForkJoinTask.invokeAll(tasks);
+            waitNanos += cpuNanos() - start;
+
+            // Combine the results in move order, as if they had been searched one after another.
+            // The searchers the moves were searched with are kept until their statistics have been added up.
+            for (SplitTask task : tasks) {
+                if (task.searcher == null) continue;
+                addStats(task.searcher, ply + 1);
+                idleSearchers.add(task.searcher);
+            }
+            for (SplitTask task : tasks) {
+                if (task.aborted) {
+                    // Cancelled because a brother caused a cut-off is fine. Anything else means we are out of budget
+                    // or an ancestor has been cut off, and this node can't be finished either.
+                    if (node.cut) continue;
+                    aborted = true;
+                    return bestRating;
+                }
+                rating = task.rating;
+                if (ourTurn) {
+                    alpha = Math.max(alpha, rating);
+                    if (rating > bestRating) {
+                        bestRating = rating;
+                        foundMove = task.move;
+                    }
+                    if (alpha >= inBeta) {
+                        betas++;
+                        cutoffs[ply]++;
+                        ordering.cutoff(fromBoard, task.move, ply, level);
+                        break;
+                    }
+                } else {
+                    beta = Math.min(beta, rating);
+                    if (rating < bestRating) {
+                        bestRating = rating;
+                        foundMove = task.move;
+                    }
+                    if (inAlpha >= beta) {
+                        alphas++;
+                        cutoffs[ply]++;
+                        ordering.cutoff(fromBoard, task.move, ply, level);
+                        break;
+                    }
+                }
+            }
+            return bestRating;
+        }
+    }
+
+    /**
+     * A node of the search whose moves have been shared out between threads.
+     */
+    static class Split {
+
+        final Split parent;
+        final boolean ourTurn;
+        final int alpha, beta;    // The window every move of the node is searched with
+
+        // Set when one of the moves causes a cut-off, so the rest can stop.
+        volatile boolean cut;
+
+        Split(Split parent, boolean ourTurn, int alpha, int beta) {
+            this.parent = parent;
+            this.ourTurn = ourTurn;
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        /**
+         * Checks if this node, or any node above it, has been cut off, in which case searching it is pointless.
+         * @return True if the search of this node should stop.
+         */
+        boolean isCut() {
+            for (Split node = this; node != null; node = node.parent) {
+                if (node.cut) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Checks if a rating of one of the moves causes a cut-off.
+         * @param rating The rating of the move.
+         * @return True if the other moves need not be searched.
+         */
+        boolean cuts(int rating) {
+            return ourTurn ? (rating >= beta) : (rating <= alpha);
+        }
     }
 
     /**
-     * Cache entry - stores a game state, and the best move we found from that state, to reuse in the future. The
-     * "staleness" value is the number of empty squares on the board in this state - since in this game the number of
-     * pieces on the board never goes down, we can use this to quickly clear out useless cache entries.
+     * One move of a split node, searched on whichever thread of the split pool picks it up.
      */
-    class CacheEntry {
-        State actualState;
-        RatedMove foundMove;
-        int staleness;
+    class SplitTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final Split node;
+        final State board;   // The position after the move
+        final int move;
+        final int level;
+
+        // Results.
+        int rating;
+        boolean aborted;
+        Searcher searcher;   // The searcher used, holding its statistics, or null if the move wasn't searched
+
+        SplitTask(Split node, State board, int move, int level) {
+            this.node = node;
+            this.board = new State(board);
+            this.move = move;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute() {
+            if (node.isCut()) {
+                // A brother has already caused a cut-off, so there is no need to start.
+                aborted = true;
+                return;
+            }
+            long start = cpuNanos();
+            searcher = idleSearchers.poll();
+            if (searcher == null) searcher = new Searcher();
+            searcher.prepareTask(board, node);
+            rating = searcher.ratePosition(level, node.alpha, node.beta);
+            aborted = searcher.aborted;
+            if (!aborted && node.cuts(rating)) node.cut = true;
+            splitBusyNanos.addAndGet((cpuNanos() - start) - searcher.waitNanos);
+        }
     }
 
     // For quickly referring to our player ID and opponent's player ID.
     int us, them;
 
-    // For statistics.
-    int states, alphas, betas, hits, bumps, overdrives, crashes;
-
-    // Stores the search depth set in the constructor
+    // Stores the search depth set in the constructor or by setDepth()
     int depth;
 
-    // Base bit patterns for Zobrist hashes of game positions.
-    int zobristBase[][][]; // [x][y][p] is the bit pattern for a piece of player p being at location x,y.
-    int turnZobrist[];     // Zobrist values for whose turn it is in the given state.
+    // Positions with this many empty squares or fewer are solved, unless changed by setEndgameEmpties().
+    static final int DEFAULT_ENDGAME_EMPTIES = 6;
+    static final int UNDECIDED_ENDGAME = 1000;   // Rating of a solve cut short by the jump limit, less its margin
+    static final int ENDGAME_NODES = 100000;   // States the solver may examine for each move, see solveDeepening()
+    int endgameEmpties = DEFAULT_ENDGAME_EMPTIES;
+
+    // Half the width of the aspiration window each level of iterative deepening starts with, around the rating of the
+    // level before, unless changed by setAspirationWindow(). 0 searches every level with the whole window.
+    static final int DEFAULT_ASPIRATION_WINDOW = 8;
+    int aspirationWindow = DEFAULT_ASPIRATION_WINDOW;
+
+    // Selective search, off unless turned on by setLateMoveReductions() and setFutilityPruning(). Both make the search
+    // faster at the risk of missing moves, so are for measuring in self-play whether the extra depth is worth it.
+    static final int LMR_MIN_MOVES = 4;     // Moves before this in the ordering are never reduced
+    static final int LMR_MIN_LEVEL = 4;     // Nodes with fewer levels left are never reduced
+    static final int LMR_MAX_INFECTS = 1;   // Moves infecting more pieces than this are never reduced
+    static final int LMR_REDUCTION = 2;     // Levels taken off a reduced move: two levels make a ply
+    static final int FUTILITY_MIN_EMPTIES = 10;
+    protected static final int NO_FUTILITY_MARGIN = -1;   // From futilityMargin(), when the heuristic can't be bounded
+    boolean lateMoveReductions;
+    boolean futilityPruning;
+
+    // Quiescence search at the horizon, off unless turned on by setQuiescence(). See Searcher.quiesce().
+    public static final int QUIESCENCE_INFECTS = 3;   // Least infections usually worth playing out, for setQuiescence()
+    static final int QUIESCENCE_PLIES = 4;      // Most infections played out after the horizon
+    static final int QUIESCENCE_STATES = 64;    // Most states examined from each position at the horizon
+    static final int NOT_OVER = Integer.MIN_VALUE;
+    int quiescenceInfects;   // Least pieces a move must infect to be played out, or 0 for no quiescence search
+
+    // What the last search did, and who to tell about each search.
+    SearchMetrics lastMetrics;
+    List<MetricsListener> metricsListeners = new CopyOnWriteArrayList<>();
+
+    // The deepest level iterative deepening will go to when it is running against a time or node budget.
+    static final int MAX_DEPTH = 64;
+
+    // Search budgets. The search deepens one ply (two levels) at a time until the next ply would break a budget, then
+    // plays the best move from the last level it finished. 0 means no budget, in which case it stops at the depth set
+    // in the constructor.
+    long timeBudget;   // milliseconds per move
+    long nodeBudget;   // states examined per move, by the main searcher
+    long deadline;     // System.nanoTime() at which the current search must stop
+
+    // Set by the main searcher when it has finished, to stop the helpers.
+    volatile boolean stopped;
+
+    // Counted up by cancel() from another thread, to stop the search early. Each search stops once the count differs
+    // from the one taken when it was asked for, so a cancel stops whatever was asked for before it, and never what is
+    // asked for after it. Nothing has to clear it, so no cancel can be lost.
+    final AtomicInteger cancels = new AtomicInteger();
+    int searchCancels;   // The count when the running search was asked for
 
-    // The actual cache, mapping from zobrist hash to cache entry
-    Hashtable<Integer,CacheEntry> cache;
+    // Pondering. The ponder search runs on its own thread, using the same searchers as nextMove(), which waits for it
+    // to stop before searching itself.
+    ExecutorService ponderThread;
+    Future<?> pondering;     // The ponder search, while it may be running
+    State ponderBoard;       // The position being pondered, after the opponent's predicted reply
+    volatile boolean ponderSearch;   // True while the ponder search is running
+    volatile boolean ponderStopped;  // Set by stopPondering() to stop the ponder search, apart from cancel()
+    int ponderBest;          // Best move found by pondering, packed
+    int ponderDepth;         // Depth pondering finished
 
-    // Hook for the heuristic
+    // Told about each level the main searcher finishes.
+    volatile ProgressListener progressListener;
+    long searchStart;   // System.nanoTime() at which the current search started
+
+    // Moves for the opening, found by deep searches made offline. Null if this AI has no book.
+    OpeningBook book;
+
+    // Memory budget for the cache, in MB, unless changed with setCacheSize().
+    static final int DEFAULT_CACHE_MB = 16;
+
+    // True if symmetric positions share cache entries, see setSymmetricCache().
+    boolean symmetricCache;
+
+    // The actual cache, mapping from zobrist hash to the best move and rating found for that position. Each entry
+    // also stores the number of empty squares in its position (its "staleness") - since in this game the number of
+    // pieces on the board never goes down, we can use this to quickly clear out useless cache entries.
+    // The cache is shared by every searcher, and is safe to use from several threads without locking.
+    TranspositionTable cache;
+
+    // Snapshot of the cache kept on disk, so a new AI starts with what earlier ones found. See setCacheSnapshot().
+    Path snapshotFile;       // Null if the cache isn't kept
+    long snapshotInterval;   // Milliseconds between saves after a move, 0 to only save when asked
+    long lastSnapshot;       // System.nanoTime() of the last save, or of loading
+    boolean snapshotLoaded;  // True once the first move has loaded the snapshot
+    ExecutorService snapshotThread;   // Saves the snapshot after a move, so the move needn't wait for the disk
+    Future<?> snapshotSaving;         // The last save after a move, while it may be running
+
+    // Parallel search. searchers[0] is the main searcher, which runs on the thread calling nextMove() and decides the
+    // move. The others are helpers, run on their own threads, which search the same position at staggered depths to
+    // fill the shared cache; the main searcher then finds much of its work already done.
+    Searcher[] searchers;
+    ExecutorService helperThreads;
+
+    // Split mode, a deterministic alternative to the helpers above: the main searcher shares the moves of deep nodes
+    // out between the threads of a fork/join pool. Searchers for the shared-out moves are kept for reuse.
+    static final int MIN_SPLIT_LEVEL = 4;   // Nodes with fewer levels left are searched on one thread
+    static final ThreadMXBean THREAD_TIMES = ManagementFactory.getThreadMXBean();
+    ForkJoinPool splitPool;
+    ConcurrentLinkedQueue<Searcher> idleSearchers = new ConcurrentLinkedQueue<>();
+    AtomicLong splitBusyNanos = new AtomicLong();
+    long[] levelBusyNanos = new long[MAX_DEPTH + 1];   // Processor time spent searching by all threads in each level
+
+    // Time taken and states examined by the main searcher in each level of the last search.
+    long[] levelNanos = new long[MAX_DEPTH + 1];
+    long[] levelStates = new long[MAX_DEPTH + 1];
+
+    // Hook for the heuristic. With more than one search thread this is called from several threads at once.
     public abstract int heuristic(State toBoard, int us, int them);
 
     /**
@@ -53,207 +959,396 @@ public abstract class MinMaxingAI implements AI {
     public MinMaxingAI(int depth) {
         super();
         this.depth = depth;
-        // Create random zobrist hash values for each possible piece position
-        zobristBase = new int[10][10][3];
-        Random rnd = new Random();
-        for (int x=0; x<10; x++) {
-            for (int y=0; y<10; y++) {
-                for (int s=0; s<3; s++) {
-                    zobristBase[x][y][s] = rnd.nextInt();
-                }
-            }
-        }
-        // Create zobrist hash values for it being each player's turn
-        turnZobrist = new int[2];
-        for (int s=0; s<2; s++) {
-            turnZobrist[s] = rnd.nextInt();
-        }
         // Set up empty cache
-        cache = new Hashtable<>();
+        cache = new TranspositionTable(DEFAULT_CACHE_MB);
+        searchers = new Searcher[] { new Searcher() };
+        book = OpeningBook.forAI(getClass());
     }
 
     /**
-     * Calculate the Zobrist hash for the given board.
-     * @param board The board to calculate for.
-     * @return The Zobrist hash.
+     * Sets the opening book. By default an AI uses the book generated for its class, if there is one.
+     * @param book The book, or null to always search.
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Creates the move ordering the search uses. Override this to plug in a different ordering.
+     * Each search thread gets its own, so it does not need to be thread safe.
+     * @return A new MoveOrdering.
+     */
+    protected MoveOrdering createMoveOrdering() {
+        return new DefaultMoveOrdering();
+    }
+
+    /**
+     * Replaces the cache with an empty one of the given size.
+     * @param megabytes The memory budget for the cache, in MB.
+     */
+    public void setCacheSize(int megabytes) {
+        cache = new TranspositionTable(megabytes);
+    }
+
+    /**
+     * Empties the cache, so the next search starts from nothing, as in a new game.
      */
-    public int zobristHash(State board) {
-        // Start from Zero
-        int hash = 0;
-        // Xor the hash value for the state of each square
-        for (int x=0; x<10; x++) {
-            for (int y=0; y<10; y++) {
-                hash = hash ^ zobristBase[x][y][board.pieceAt(x,y)];
+    public void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Keeps the cache in a snapshot file between games and runs. The first move an AI makes loads the snapshot, so
+     * its first searches find what earlier AIs of the same class, playing the same side, already found. The snapshot
+     * is saved again after a move once the given interval has passed, in the background while play goes on, and
+     * whenever saveCacheSnapshot() is called.
+     * @param file The snapshot file, or null to not keep the cache.
+     * @param intervalMillis How often to save the snapshot, in milliseconds, or 0 to only save it when asked.
+     */
+    public void setCacheSnapshot(Path file, long intervalMillis) {
+        snapshotFile = file;
+        snapshotInterval = intervalMillis;
+        snapshotLoaded = false;
+    }
+
+    /**
+     * Saves the cache to the snapshot file set with setCacheSnapshot(), if there is one. Does nothing before the first
+     * move, as the cache then holds nothing the snapshot doesn't.
+     * @throws IOException If the snapshot can't be written.
+     */
+    public void saveCacheSnapshot() throws IOException {
+        if ((snapshotFile == null) || !snapshotLoaded) return;
+        if (snapshotSaving != null) {
+            // Let a save after a move finish first, so this one is the last word.
+            try {
+                snapshotSaving.get();
+            } catch (Exception e) {
+                throw new RuntimeException("Cache snapshot save failed", e);
             }
+            snapshotSaving = null;
         }
-        // And for whose turn it is
-        hash = hash ^ turnZobrist[board.whoseTurn()-1];
-        return hash;
-    }
-
-    /**
-     * Calculates the eventual heuristic rating for a given move.
-     * @param fromBoard The board to start from.
-     * @param theMove The move to consider making.
-     * @param level How many recursive levels to explore after that move.
-     * @param inAlpha The alpha cut-off value.
-     * @param inBeta The beta cut-off value.
-     * @return The integer rating for the move.
-     */
-    int rateMove(State fromBoard, Move theMove, int level, int inAlpha, int inBeta) {
-        State newBoard = fromBoard.afterMove(theMove);
-
-        int ours = newBoard.countPieces(us);
-        int theirs = newBoard.countPieces(them);
-
-        // Following are conditions under which we win/lose immediately. We don't put these in the heuristic because
-        // if we encounter one, we should stop recursing no matter what (the heuristic is only used when we reach the
-        // end of the recursion)
-        // Enemy out of pieces, we win.
-        if (theirs == 0) return 9998;
-        // Board full: we have more pieces, we win; we have less, we lose.
-        if (ours+theirs == 100) {
-            if (ours > 50) return 9998;
-            return 0;
-        }
-        // Next turn has no moves: other player claims all open spaces.
-        // If that gives us more, we win; else, we lose.
-        ArrayList<Move> nextMoves = newBoard.validMoves();
-        if (nextMoves.size() == 0) {
-            int rest = (100 - ours) - theirs;
-            if (newBoard.whoseTurn() == us) {
-                if ((ours+rest) > theirs) return 9998;
-            }   else {
-                if ((theirs+rest) > ours) return 0;
-            }
+        cache.save(snapshotFile, snapshotTag());
+        lastSnapshot = System.nanoTime();
+    }
+
+    /**
+     * Saves the cache to the snapshot file on a background thread, so that the move just found can be played without
+     * waiting for the disk. Searches may go on while it is saved, see TranspositionTable.save(). If the last save is
+     * still running, this one is skipped.
+     */
+    void saveCacheSnapshotInBackground() {
+        if ((snapshotSaving != null) && !snapshotSaving.isDone()) return;
+        if (snapshotThread == null) {
+            snapshotThread = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, getClass().getSimpleName() + " snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
-        // Ok, we could potentially recurse. Do we have recursive levels left?
-        if (level > 0) {
-            // Yes, recurse and return result.
-            RatedMove next = moveSearch(newBoard,level-1,inAlpha,inBeta);
-            if (next != null) {
-                return next.rating;
-            } else {
-                // No future move could be found within the given alpha-beta range, so we shouldn't take this move.
-                return -9999;
-            }
-         } else {
-            // Reached recursion limit, use the heuristic.
-            return heuristic(newBoard, us, them);
-         }
-    }
-
-    /**
-     * The actual recursive move search function.
-     * @param fromBoard The position to start from.
-     * @param level How many more levels of recursion to perform.
-     * @param inAlpha The alpha value at the root of this subtree.
-     * @param inBeta The beta value at the root of this subtree.
-     * @return The RatedMove that's the best found so far.
-     */
-    RatedMove moveSearch(State fromBoard, int level, int inAlpha, int inBeta) {
-        int alpha = inAlpha;
-        int beta = inBeta;
-
-        Move bestSoFar = null;
-        int bestRating, rating;
-
-        // Zobrist hash this board, and check if the hash is already in the cache.
-        int zobrist = zobristHash(fromBoard);
-        if (cache.containsKey(zobrist)) {
-            // Hashes were the same. But Zobrist Hashes are not 100% exact, so see if the boards are really the same.
-            CacheEntry cacheResult = cache.get(zobrist);
-            State test = cacheResult.actualState;
-            boolean ok = true;
-            if (test.whoseTurn() != fromBoard.whoseTurn()) ok = false;
-            if (ok) {
-                for (int x=0; x<10; x++) {
-                    for (int y=0; y<10; y++) {
-                        if (test.pieceAt(x,y) != fromBoard.pieceAt(x,y)) {
-                            ok = false;
-                            break;
-                        }
-                    }
-                    if (!ok) break;
-                }
-            }
-            if(!ok) {
-                // They are not the same. Flag this as a Zobrist collision and go ahead with regular search.
-                crashes++;
-            } else {
-                // They are the same! We've searched this state before! How did we do?
-                if (cacheResult.foundMove.depth > level) {
-                    // We've found this before at a high level, so our previous search was actually better than the
-                    // one we're about to do!
-                    overdrives++;
-                    return cacheResult.foundMove;
-                }
-                if (cacheResult.foundMove.depth == level) {
-                    // We've found this before at the same level. No point doing it again.
-                    hits++;
-                    return cacheResult.foundMove;
-                }
-                // If we've found this before at a lower level, meh. We need to explore it further, so go ahead
-                // with the search we were about to do.
+        TranspositionTable table = cache;
+        Path file = snapshotFile;
+        long tag = snapshotTag();
+        lastSnapshot = System.nanoTime();
+        snapshotSaving = snapshotThread.submit(() -> {
+            try {
+                table.save(file, tag);
+            } catch (IOException e) {
+                System.err.println("Could not save cache snapshot " + file + ": " + e.getMessage());
             }
+        });
+    }
+
+    /**
+     * Loads the snapshot file into the cache, leaving out positions with more empty squares than the one about to be
+     * searched, which can't be reached any more. A snapshot that is missing, unreadable or for another AI is ignored.
+     * @param board The position about to be searched.
+     */
+    void loadCacheSnapshot(State board) {
+        snapshotLoaded = true;
+        lastSnapshot = System.nanoTime();
+        playAs(board.whoseTurn());
+        if (!Files.isReadable(snapshotFile)) return;
+        try {
+            cache.load(snapshotFile, snapshotTag(), board.countPieces(0));
+        } catch (IOException e) {
+            System.err.println("Could not load cache snapshot " + snapshotFile + ": " + e.getMessage());
         }
+    }
 
-        // If it's our turn, start from the lowest possible rating (worst for us). If it's their turn, start from
-        // the highest possible rating (worst for them)
-        if (fromBoard.whoseTurn() == us) bestRating = -9999; else bestRating = 9999;
+    /**
+     * Gets the tag saved with the cache snapshot. Ratings are only good for the heuristic that made them, from the
+     * point of view of the player they were made for, and keys depend on whether the cache is symmetric. Late move
+     * reductions, futility pruning and quiescence change the ratings and bounds the search stores, so a snapshot made
+     * with other settings for them isn't loaded either.
+     */
+    long snapshotTag() {
+        return ((long) getClass().getName().hashCode() << 32) | ((long) quiescenceInfects << 5)
+                | (futilityPruning ? 16 : 0) | (lateMoveReductions ? 8 : 0) | (symmetricCache ? 4 : 0) | us;
+    }
 
-        for (Move theMove : fromBoard.validMoves()) {
-            // Count states examined
-            states++;
-            // If it's our turn..
-            if (fromBoard.whoseTurn() == us) {
-                // Calculate rating of this move (which may include recursion)
-                rating = rateMove(fromBoard, theMove, level - 1, alpha, inBeta);
-                // Keep alpha up to date with the best move found so far.
-                alpha = Math.max(alpha, rating);
-                if ((rating > bestRating)) {
-                    bestRating = rating;
-                    bestSoFar = theMove;
-                }
-                // If alpha>beta then it is pointless to continue examining this state. We assume the opponent will not
-                // allow us to get into this state in the first place because we have already found a way they can
-                // make things worse for us.
-                if (alpha >= inBeta) {
-                    betas++;
-                    break;
-                }
-            } else { // If it's their turn..
-                rating = rateMove(fromBoard,theMove,level-1,inAlpha,beta);
-                // Keep beta up to date with the worst (for us, best for opponent) move found so far.
-                beta = Math.min(beta,rating);
-                if ((rating < bestRating)) {
-                    bestRating = rating;
-                    bestSoFar = theMove;
-                }
-                // If alpha>beta then it is pointless to continue examining this state. Getting into this state in the
-                // first place is a bad idea because there are other states we've found where the opponent's worst
-                // move is better for us.
-                if (inAlpha >= beta) {
-                    alphas++;
-                    break;
-                }
-            }
+    /**
+     * Sets how many threads search each move. Extra threads run helper searches that share the cache with the main
+     * search, so in the same time the main search gets deeper.
+     * @param threads The number of threads, at least 1.
+     */
+    public void setThreads(int threads) {
+        assert threads >= 1 : "setThreads called with an invalid thread count " + threads;
+        if (threads == searchers.length) return;
+        if (helperThreads != null) helperThreads.shutdown();
+        helperThreads = null;
+        searchers = new Searcher[threads];
+        for (int i=0; i<threads; i++) {
+            searchers[i] = new Searcher();
         }
-        // Store the result in the cache, and return it
-        RatedMove result = new RatedMove();
-        result.move = bestSoFar;
-        result.rating = bestRating;
-        result.depth = level;
-        if (bestSoFar != null) {
-            CacheEntry entry = new CacheEntry();
-            entry.actualState = fromBoard;
-            entry.foundMove = result;
-            entry.staleness = fromBoard.countPieces(0);
-            // Note that this will overwrite any previous cache entry with the same Zobrist hash.
-            // That's ok - at the start of this method we already checked to see if there was an existing relevant entry.
-            cache.put(zobrist,entry);
+        if (threads > 1) {
+            helperThreads = Executors.newFixedThreadPool(threads - 1, runnable -> {
+                Thread thread = new Thread(runnable, getClass().getSimpleName() + " helper");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
-        return result;
+    }
+
+    /**
+     * Gets how many threads search each move.
+     * @return The number of threads set with setThreads(), 1 by default.
+     */
+    public int getThreads() {
+        return searchers.length;
+    }
+
+    /**
+     * Turns on split mode, in which the moves of deep nodes are shared out between threads and searched in parallel,
+     * with the same result as searching them on one thread. Unlike setThreads(), the move chosen at a fixed depth
+     * does not depend on how the threads happen to be scheduled, which makes games reproducible.
+     * How long each level took, and how busy it kept the threads, is in the SearchMetrics given to metrics listeners.
+     * tools.Benchmark's splitSpeedup benchmarks measure how much faster than one thread each level is.
+     * @param threads The number of threads to share the work between, or 0 to turn split mode off.
+     */
+    public void setSplitThreads(int threads) {
+        assert threads >= 0 : "setSplitThreads called with an invalid thread count " + threads;
+        if (splitPool != null) splitPool.shutdown();
+        splitPool = (threads > 0) ? new ForkJoinPool(threads) : null;
+        idleSearchers.clear();
+    }
+
+    @Override
+    public void cancel() {
+        cancels.incrementAndGet();
+    }
+
+    /**
+     * Checks whether cancel() has been called since the running search was asked for.
+     * @return True if the search should stop.
+     */
+    boolean cancelled() {
+        return cancels.get() != searchCancels;
+    }
+
+    @Override
+    public void setProgressListener(ProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Sets how long each move may take. The search deepens until the time runs out, and plays the best move from the
+     * deepest level it finished.
+     * @param millis The time budget in milliseconds, or 0 to search to the fixed depth set in the constructor.
+     */
+    public void setTimeBudget(long millis) {
+        timeBudget = millis;
+    }
+
+    /**
+     * Sets how many states each move may examine, as well as or instead of a time budget.
+     * @param nodes The node budget, or 0 for no limit.
+     */
+    public void setNodeBudget(long nodes) {
+        nodeBudget = nodes;
+    }
+
+    /**
+     * Gets the depth of the last search level that finished within its budget.
+     * @return The depth reached by the most recent call to nextMove().
+     */
+    public int completedDepth() {
+        return searchers[0].completedDepth;
+    }
+
+    /**
+     * Gets what the last search did.
+     * @return The metrics of the most recent search, or null if there hasn't been one.
+     */
+    public SearchMetrics lastMetrics() {
+        return lastMetrics;
+    }
+
+    /**
+     * Adds a listener to be told what each search did.
+     * @param listener The listener.
+     */
+    public void addMetricsListener(MetricsListener listener) {
+        metricsListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addMetricsListener().
+     * @param listener The listener.
+     */
+    public void removeMetricsListener(MetricsListener listener) {
+        metricsListeners.remove(listener);
+    }
+
+    /**
+     * Keeps the metrics of a search, and hands them to the listeners.
+     * @param metrics The metrics.
+     */
+    void publish(SearchMetrics metrics) {
+        lastMetrics = metrics;
+        for (MetricsListener listener : metricsListeners) {
+            listener.searchFinished(metrics);
+        }
+    }
+
+    /**
+     * Sets the depth to search to when there is no time or node budget.
+     * @param depth The depth to search to.
+     */
+    public void setDepth(int depth) {
+        assert depth >= 1 : "setDepth called with an invalid depth " + depth;
+        this.depth = depth;
+    }
+
+    /**
+     * Sets how few empty squares a position must have to be solved by playing out the rest of the game, rather than
+     * searched to the usual depth and rated by the heuristic. The more empty squares, the more of the solver's budget
+     * goes on lines with no jumps, and past about 14 it may not finish those, in which case the position is searched.
+     * @param empties The most empty squares to solve with, or 0 to never use the solver.
+     */
+    public void setEndgameEmpties(int empties) {
+        assert empties >= 0 : "setEndgameEmpties called with an invalid number " + empties;
+        this.endgameEmpties = empties;
+    }
+
+    /**
+     * Sets the aspiration window: how far either side of the last level's rating the search of each level first
+     * looks, as described in Searcher.searchRoot().
+     * @param window Half the width of the window, or 0 to always search with the whole window.
+     */
+    public void setAspirationWindow(int window) {
+        assert window >= 0 : "setAspirationWindow called with an invalid window " + window;
+        this.aspirationWindow = window;
+    }
+
+    /**
+     * Sets whether quiet moves late in the move ordering are searched a ply less deep, unless they prove better than
+     * the moves before them. Off by default.
+     * @param reduce True to reduce late moves.
+     */
+    public void setLateMoveReductions(boolean reduce) {
+        this.lateMoveReductions = reduce;
+    }
+
+    /**
+     * Sets whether moves at the horizon that can't gain enough to matter are skipped, judged by futilityMargin().
+     * Off by default. It only does anything for heuristics that override futilityMargin(), and not with quiescence.
+     * Of the AIs here that is Aggressive and Defensive. Advanced, Intermediate and Beginner switch between ratings at
+     * piece-count thresholds, which no margin small enough to prune anything can cover, so for them this is a no-op.
+     * @param prune True to prune futile moves.
+     */
+    public void setFutilityPruning(boolean prune) {
+        this.futilityPruning = prune;
+    }
+
+    /**
+     * Sets whether positions at the search horizon are rated by playing out the big infections still to be had,
+     * rather than straight away by the heuristic, which misjudges positions in the middle of an exchange. This costs
+     * far less than searching a ply deeper, since only a few moves are tried and the search is cut short if it grows.
+     * Off by default, as it changes how every AI plays; turn it on for an AI once self-play shows it is worth it.
+     * @param minInfects The least enemy pieces a move must infect to be played out, such as QUIESCENCE_INFECTS, or 0
+     *                   for no quiescence search.
+     */
+    public void setQuiescence(int minInfects) {
+        assert minInfects >= 0 : "setQuiescence called with an invalid number " + minInfects;
+        this.quiescenceInfects = minInfects;
+    }
+
+    /**
+     * Gets the most a move could change the heuristic rating of a position, for futility pruning. A move is only
+     * pruned if this is a true bound, or the search would play differently with pruning on. Heuristics whose rating
+     * jumps when the position passes some threshold, such as who has more pieces, can't give a useful bound, so the
+     * default is NO_FUTILITY_MARGIN, which prunes nothing. Override this if the heuristic moves by a known amount for
+     * each piece. A move that leaves the next player stuck or takes every enemy piece needn't be allowed for: both end
+     * the game, and neither is ever pruned.
+     * @param board The position.
+     * @param move The move, packed with Move.pack().
+     * @param us The player the heuristic rates for.
+     * @param them The other player.
+     * @return The most the rating could rise, if the player moving is us, or fall, if it is them. NO_FUTILITY_MARGIN
+     *         if there is no bound.
+     */
+    protected int futilityMargin(State board, int move, int us, int them) {
+        return NO_FUTILITY_MARGIN;
+    }
+
+    /**
+     * Checks whether a searcher has used up its time or node budget, or has been told to stop.
+     * @param searcher The searcher to check.
+     * @return True if the searcher should stop.
+     */
+    boolean outOfBudget(Searcher searcher) {
+        if (stopped || ponderStopped || cancelled()) return true;
+        if ((searcher.split != null) && searcher.split.isCut()) return true;
+        // Pondering goes on until it is stopped, whatever the budget.
+        if (ponderSearch) return false;
+        if ((nodeBudget > 0) && (searcher.states >= nodeBudget)) return true;
+        return (timeBudget > 0) && (System.nanoTime() - deadline > 0);
+    }
+
+    /**
+     * Gets the processor time used by the current thread, for measuring how much of the split search's time was
+     * spent searching rather than waiting for a processor.
+     * @return The thread's processor time in nanoseconds.
+     */
+    static long cpuNanos() {
+        return THREAD_TIMES.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Gets the Zobrist hash for the given board. The board keeps its own 64-bit key up to date as moves are made,
+     * so this no longer has to visit every square.
+     * @param board The board to calculate for.
+     * @return The Zobrist hash.
+     */
+    public long zobristHash(State board) {
+        if (symmetricCache) return board.symmetricKey(board.canonicalSymmetry());
+        return board.zobristKey();
+    }
+
+    /**
+     * Gets the best move from a cache entry. With a symmetric cache the entry may have been stored from a symmetric
+     * version of the position, with the move as it is there, so the move is turned back to suit this board.
+     * @param entry The cache entry.
+     * @param board The position the entry was found for.
+     * @param symmetry The symmetry board.canonicalSymmetry() picked, or 0 without a symmetric cache.
+     * @return The move, packed, in the form generateMoves() would list it.
+     */
+    int cachedMove(long entry, State board, int symmetry) {
+        int move = TranspositionTable.move(entry);
+        if (!symmetricCache) return move;
+        return board.generatedForm(State.symmetricMove(move, State.inverseSymmetry(symmetry)));
+    }
+
+    /**
+     * Sets whether the cache treats symmetric positions - those the same but for reflecting or rotating the board -
+     * as one. Each is stored under the key of whichever version has the lowest key, so a search finds positions it
+     * has only seen reflected or rotated, and the cache holds more different positions. Keeping the key of every
+     * version up to date makes each move a little slower. The cache is cleared, since its keys change.
+     * @param symmetric True to share cache entries between symmetric positions.
+     */
+    public void setSymmetricCache(boolean symmetric) {
+        symmetricCache = symmetric;
+        cache.clear();
     }
 
     @Override
@@ -261,41 +1356,226 @@ public abstract class MinMaxingAI implements AI {
      * Calculates the next move.
      */
     public Move nextMove(State board) {
-        // Clear statistic values.
-        states = 0;
-        alphas = 0;
-        betas = 0;
-        hits = 0;
-        bumps = 0;
-        overdrives = 0;
-        crashes = 0;
+        // A cancel() from here on stops this move, even while pondering is still being stopped.
+        int token = cancels.get();
+        stopPondering();
+        searchCancels = token;
+        if (!board.hasValidMoves()) return null;
+
+        // However the move is found, the first one loads the snapshot and every one may save it.
+        if ((snapshotFile != null) && !snapshotLoaded) loadCacheSnapshot(board);
+        Move bestMove = findMove(board);
+        if ((snapshotInterval > 0) && (System.nanoTime() - lastSnapshot >= snapshotInterval * 1000000)) {
+            saveCacheSnapshotInBackground();
+        }
+
+        return bestMove;
+    }
+
+    /**
+     * Finds the move to play: the one pondering found, if the opponent played the predicted move, or the book's, or
+     * else the one found by searching.
+     * @param board The current board.
+     * @return The move.
+     */
+    Move findMove(State board) {
+        boolean budgeted = (timeBudget > 0) || (nodeBudget > 0);
+        if ((ponderBoard != null) && board.samePosition(ponderBoard) && !budgeted && (ponderDepth >= depth)) {
+            // The opponent played the predicted move, and we have already searched the position as deep as we would
+            // now. Play the move found.
+            ponderBoard = null;
+            Move ponderMove = playable(ponderBest, board);
+            publish(SearchMetrics.ponderHit(ponderDepth, ponderMove, cache.size()));
+            return ponderMove;
+        }
+        // Otherwise search as usual, but the cache holds whatever pondering found, so much of the search may already
+        // have been done.
+        ponderBoard = null;
 
-        us = board.whoseTurn();
-        them = board.whoseNotTurn();
+        // Near the start of the game the book may already know the move, from a search at least as deep as this one.
+        if (book != null) {
+            int bookMove = book.probe(board.zobristKey(), budgeted ? 0 : depth);
+            if ((bookMove != 0) && board.moveIsValid(Move.unpack(bookMove))) {
+                publish(SearchMetrics.bookHit(book.depth(), Move.unpack(bookMove), cache.size()));
+                return Move.unpack(bookMove);
+            }
+        }
 
-        // Start the recursive search.
-        // Alpha (best maximum at a minimizing node) and beta (best minimum at a maximising node) start at the
-        // "worst" possible values.
-        RatedMove bestMove = moveSearch(board,depth,-9999,9999);
+        return playable(search(board, budgeted ? MAX_DEPTH : depth), board);
+    }
 
+    /**
+     * Gets the move to play from the best move a search found. If no move rated above the worst value, as when every
+     * move loses, the search found none, and the first valid move is played.
+     * @param best The best move found, packed with Move.pack(), or 0 if none was.
+     * @param board The current board, where the player to move has a valid move.
+     * @return The move.
+     */
+    static Move playable(int best, State board) {
+        return (best != 0) ? Move.unpack(best) : board.validMoves().get(0);
+    }
 
-        System.out.println("MinMaxing examined " + states + " states, " + alphas + " alpha cut-offs, " + betas + " beta cut-offs.");
-        System.out.println("Cache size is " + cache.size() + ", " + hits + " hits, " + overdrives + " overdrives, " + crashes + " Zobrist hash collisions.");
+    /**
+     * Starts pondering: searching on the opponent's time. The position after the opponent's most likely reply is
+     * searched in the background, filling the cache, until nextMove() is called or the search reaches the depth
+     * nextMove() would search to.
+     * @param board The current board, with the opponent to move.
+     */
+    @Override
+    public void ponder(State board) {
+        stopPondering();
+        // The cache holds the reply our last search expected the opponent to make.
+        State keyed = new State(board);
+        if (symmetricCache) keyed.trackSymmetries();
+        long cacheResult = cache.probe(zobristHash(keyed));
+        if (cacheResult == 0) return;
+        Move reply = Move.unpack(cachedMove(cacheResult, keyed, symmetricCache ? keyed.canonicalSymmetry() : 0));
+        if (!board.moveIsValid(reply)) return;
+        State predicted = board.afterMove(reply);
+        if (!predicted.hasValidMoves()) return;
+
+        if (ponderThread == null) {
+            ponderThread = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, getClass().getSimpleName() + " ponder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        boolean budgeted = (timeBudget > 0) || (nodeBudget > 0);
+        int token = cancels.get();
+        pondering = ponderThread.submit(() -> {
+            searchCancels = token;
+            ponderSearch = true;
+            ponderBest = search(predicted, budgeted ? MAX_DEPTH : depth);
+            ponderDepth = searchers[0].completedDepth;
+            ponderSearch = false;
+        });
+        ponderBoard = predicted;
+    }
+
+    /**
+     * Stops pondering, if it is running, and waits for the ponder search to finish. This has its own flag rather than
+     * going through cancel(), so that a cancel() made meanwhile still stops the move about to be searched.
+     */
+    void stopPondering() {
+        if (pondering == null) return;
+        ponderStopped = true;
+        try {
+            pondering.get();
+        } catch (Exception e) {
+            throw new RuntimeException("Ponder search failed", e);
+        } finally {
+            ponderStopped = false;
+        }
+        pondering = null;
+    }
+
+    /**
+     * Sets the player the search is for. The cache's ratings are from that player's point of view, so when it changes,
+     * as when a new game is played from the other side, the cache is cleared.
+     * @param player The player to move in the position about to be searched.
+     */
+    void playAs(int player) {
+        if ((us != 0) && (us != player)) cache.clear();
+        us = player;
+        them = 3 - player;
+    }
+
+    /**
+     * Searches a position, deepening until the budget runs out or the given depth is reached.
+     * @param board The position to search.
+     * @param maxDepth The deepest level to search.
+     * @return The best move found, packed, or 0 if no level finished.
+     */
+    int search(State board, int maxDepth) {
+        playAs(board.whoseTurn());
+        cache.newSearch();
 
         // Cache pruning
         // Since the number of pieces on the board in this game never goes down, only up,
-        // Any board with more blank spaces than the current position will never be reached and can be pruned
-        ArrayList<Integer> deadlist = new ArrayList<>();
-        int threshold = board.countPieces(0);
-        for (int key : cache.keySet()) {
-            if (cache.get(key).staleness > threshold) deadlist.add(key);
+        // Any board with more blank spaces than this position will never be reached and can be pruned. The pruning
+        // takes no time, and after a new game starts without clearing the cache it brings back what is still there.
+        // That is only right because the new game is played from the same side: playAs() clears the cache otherwise.
+        cache.prune(board.countPieces(0));
+
+        searchStart = System.nanoTime();
+        deadline = searchStart + timeBudget * 1000000;
+        stopped = false;
+
+        // Start the helpers, half of them one ply ahead of the main searcher so that they are not all working on
+        // the same positions at the same time. They run until the main searcher is done.
+        Future<?>[] helpers = new Future<?>[searchers.length];
+        for (int i=1; i<searchers.length; i++) {
+            int offset = (i % 2) * 2;
+            searchers[i].prepare(board, 1 + offset, Math.min(maxDepth + offset, MAX_DEPTH), true);
+            helpers[i] = helperThreads.submit(searchers[i]);
+        }
+        Searcher main = searchers[0];
+        main.prepare(board, 1, maxDepth, false);
+        Arrays.fill(levelNanos, 0);
+        Arrays.fill(levelStates, 0);
+        Arrays.fill(levelBusyNanos, 0);
+        if (splitPool != null) {
+            // Split work can only be shared out from inside the pool.
+            splitPool.invoke(ForkJoinTask.adapt(main));
+        } else {
+            main.run();
         }
-        for (int key : deadlist) {
-            cache.remove(key);
+        stopped = true;
+        for (int i=1; i<searchers.length; i++) {
+            try {
+                helpers[i].get();
+            } catch (Exception e) {
+                throw new RuntimeException("Helper search failed", e);
+            }
         }
-        System.out.println("Pruning reduced cache size to " + cache.size());
+        long elapsed = System.nanoTime() - searchStart;
 
-        return bestMove.move;
+        // Add up what every searcher did.
+        SearchMetrics metrics = new SearchMetrics();
+        metrics.cutoffsByPly = new long[main.cutoffs.length];
+        for (Searcher searcher : searchers) {
+            metrics.nodes += searcher.states;
+            metrics.alphaCutoffs += searcher.alphas;
+            metrics.betaCutoffs += searcher.betas;
+            metrics.cacheProbes += searcher.probes;
+            metrics.cacheHits += searcher.hits;
+            metrics.cacheOverdrives += searcher.overdrives;
+            metrics.cacheCollisions += searcher.crashes;
+            metrics.heuristicCalls += searcher.heuristicCalls;
+            metrics.endgameSolves += searcher.solves;
+            metrics.researches += searcher.researches;
+            metrics.aspirationFailHighs += searcher.failHighs;
+            metrics.aspirationFailLows += searcher.failLows;
+            metrics.reductions += searcher.reductions;
+            metrics.futilityPrunes += searcher.futilityPrunes;
+            metrics.quiescenceNodes += searcher.quiescenceStates;
+            for (int i=0; i<metrics.cutoffsByPly.length; i++) {
+                metrics.cutoffsByPly[i] += searcher.cutoffs[i];
+            }
+        }
+        int plies = metrics.cutoffsByPly.length;
+        while ((plies > 0) && (metrics.cutoffsByPly[plies - 1] == 0)) plies--;
+        metrics.cutoffsByPly = Arrays.copyOf(metrics.cutoffsByPly, plies);
+        int completed = main.completedDepth;
+        metrics.pondering = ponderSearch;
+        metrics.depth = completed;
+        metrics.bestMove = (main.best != 0) ? Move.unpack(main.best) : null;
+        metrics.rating = main.bestRating;
+        metrics.threads = searchers.length;
+        metrics.nanos = elapsed;
+        metrics.cacheSize = cache.size();
+        metrics.iterationNanos = Arrays.copyOf(levelNanos, completed + 1);
+        metrics.iterationNodes = Arrays.copyOf(levelStates, completed + 1);
+        metrics.iterationUtilisation = new double[completed + 1];
+        if (splitPool != null) {
+            for (int level=MIN_SPLIT_LEVEL; level<=completed; level++) {
+                if (levelNanos[level] == 0) continue;
+                metrics.iterationUtilisation[level] = (double) levelBusyNanos[level] / levelNanos[level];
+            }
+        }
+        publish(metrics);
+        return main.best;
     }
 
 
@@ -0,0 +1,34 @@
+package ai;
+
+import model.MoveList;
+import model.State;
+
+/**
+ * Decides which order a search tries moves in. Alpha-beta cuts off soonest when the best move is tried first, so a
+ * good ordering lets the same depth be searched with far fewer states.
+ */
+public interface MoveOrdering {
+
+    /**
+     * Scores every move in a list with MoveList.setScore(). The search then tries the highest scores first.
+     * @param board The position the moves are from.
+     * @param moves The moves to score.
+     * @param cachedMove The best move found in this position by an earlier search, packed, or 0 if there is none.
+     * @param ply How many moves into the search this position is.
+     */
+    void order(State board, MoveList moves, int cachedMove, int ply);
+
+    /**
+     * Told when a move caused a cut-off, so it can be tried earlier in similar positions.
+     * @param board The position the move was made from.
+     * @param move The move, packed with Move.pack().
+     * @param ply How many moves into the search the position is.
+     * @param level How many levels were left to search below the position.
+     */
+    void cutoff(State board, int move, int ply, int level);
+
+    /**
+     * Told when a new search starts, so it can forget or age what it learnt from the last one.
+     */
+    void newSearch();
+}
@@ -0,0 +1,159 @@
+package ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only opening book: the best move for positions near the start of the game, found by deep searches made
+ * offline with tools.BookGenerator.
+ *
+ * The book file is memory-mapped rather than read, so opening it is instant and every AI using the same file shares
+ * one copy of it. It is a 16 byte header followed by entries sorted by key, found by binary search:
+ *
+ *   header: int MAGIC, int VERSION, int number of entries, int depth the generator searched to
+ *   entry:  long Zobrist key (State.zobristKey()), int packed move, short rating, short depth searched
+ *
+ * All values are big-endian. Since the key is only 64 bits, a book move may (very rarely) belong to a different
+ * position, so callers must check it is valid before playing it.
+ */
+public class OpeningBook {
+
+    public static final int MAGIC = 0x49424F4B;   // "IBOK"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int ENTRY_BYTES = 16;
+
+    // Directory the books for each AI are looked for in, unless the infection.books system property says otherwise.
+    static final String DEFAULT_DIRECTORY = "books";
+
+    // Books already opened by forAI(), by file name. A missing book is remembered as NONE.
+    static final OpeningBook NONE = new OpeningBook();
+    static final Map<String, OpeningBook> OPENED = new ConcurrentHashMap<>();
+
+    final ByteBuffer entries;
+    final int size;
+    final int depth;
+
+    OpeningBook() {
+        entries = ByteBuffer.allocate(0);
+        size = 0;
+        depth = 0;
+    }
+
+    OpeningBook(ByteBuffer buffer) throws IOException {
+        if ((buffer.capacity() < HEADER_BYTES) || (buffer.getInt(0) != MAGIC)) {
+            throw new IOException("Not an opening book");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Opening book version " + buffer.getInt(4) + " is not supported");
+        }
+        size = buffer.getInt(8);
+        depth = buffer.getInt(12);
+        if (buffer.capacity() != HEADER_BYTES + (long) size * ENTRY_BYTES) {
+            throw new IOException("Opening book is truncated");
+        }
+        entries = buffer;
+    }
+
+    /**
+     * Opens a book file, mapping it into memory.
+     * @param file The book file.
+     * @return The book.
+     * @throws IOException If the file can't be read or isn't a book.
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new OpeningBook(buffer);
+        }
+    }
+
+    /**
+     * Finds the book generated for an AI: the file named after its class, with the extension .book, in the books
+     * directory. Each file is only opened once, however many AIs use it.
+     * @param ai The class of the AI.
+     * @return The book, or null if there isn't one or it can't be read.
+     */
+    public static OpeningBook forAI(Class<?> ai) {
+        Path file = Paths.get(System.getProperty("infection.books", DEFAULT_DIRECTORY), ai.getSimpleName() + ".book");
+        OpeningBook book = OPENED.computeIfAbsent(file.toAbsolutePath().toString(), name -> {
+            if (!Files.isReadable(file)) return NONE;
+            try {
+                return open(file);
+            } catch (IOException e) {
+                System.err.println("Could not open opening book " + file + ": " + e.getMessage());
+                return NONE;
+            }
+        });
+        return (book != NONE) ? book : null;
+    }
+
+    /**
+     * Looks up a position.
+     * @param key The Zobrist key of the position, from State.zobristKey().
+     * @param minDepth The least depth the move must have been searched to.
+     * @return The packed book move, or 0 if the position isn't in the book or wasn't searched deep enough.
+     */
+    public int probe(long key, int minDepth) {
+        int index = find(key);
+        if ((index < 0) || (depth(index) < minDepth)) return 0;
+        return move(index);
+    }
+
+    /**
+     * Finds a position's entry by binary search.
+     * @param key The Zobrist key of the position.
+     * @return The index of its entry, or -1 if it isn't in the book.
+     */
+    int find(long key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = key(middle);
+            if (middleKey < key) low = middle + 1;
+            else if (middleKey > key) high = middle - 1;
+            else return middle;
+        }
+        return -1;
+    }
+
+    long key(int index) {
+        return entries.getLong(HEADER_BYTES + index * ENTRY_BYTES);
+    }
+
+    int move(int index) {
+        return entries.getInt(HEADER_BYTES + index * ENTRY_BYTES + 8);
+    }
+
+    int rating(int index) {
+        return entries.getShort(HEADER_BYTES + index * ENTRY_BYTES + 12);
+    }
+
+    int depth(int index) {
+        return entries.getShort(HEADER_BYTES + index * ENTRY_BYTES + 14);
+    }
+
+    /**
+     * Gets the number of positions in the book.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the depth the generator searched each position to.
+     */
+    public int depth() {
+        return depth;
+    }
+}
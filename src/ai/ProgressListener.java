@@ -0,0 +1,19 @@
+package ai;
+
+import model.Move;
+
+/**
+ * Told how a search is getting on while it runs, for showing progress to the user.
+ * Progress is reported from the thread running the search, not the thread that set the listener.
+ */
+public interface ProgressListener {
+
+    /**
+     * Called each time the search finishes another level.
+     * @param depth The depth just finished.
+     * @param states The number of states examined so far.
+     * @param nanos The time spent searching so far, in nanoseconds.
+     * @param bestMove The best move found so far.
+     */
+    void searchProgress(int depth, long states, long nanos, Move bestMove);
+}
@@ -0,0 +1,278 @@
+package ai;
+
+import model.Move;
+
+/**
+ * What one search did: how many states it examined and how fast, how well the cache and cut-offs worked, and how long
+ * each level of iterative deepening took. MinMaxingAI fills one in for every search and hands it to its
+ * MetricsListeners.
+ */
+public class SearchMetrics {
+
+    boolean pondering;     // The search was pondering on the opponent's time
+    boolean ponderHit;     // No search was needed, as pondering had already found the move
+    boolean bookHit;       // No search was needed, as the move was in the opening book
+    int depth;             // Deepest level finished
+    Move bestMove;
+    int rating;            // Rating of the best move, for the player to move
+    int threads = 1;
+    long nodes;            // States examined, by all threads
+    long nanos;            // Time taken
+    long alphaCutoffs, betaCutoffs;
+    long[] cutoffsByPly = new long[0];   // Cut-offs of either kind at each ply of the search
+    long cacheProbes, cacheHits, cacheOverdrives, cacheCollisions;
+    int cacheSize;         // Positions in the cache at the end of the search
+    long heuristicCalls;
+    long endgameSolves;    // Positions handed to the endgame solver
+    long researches;       // Moves a null window scout proved better, searched again
+    long aspirationFailHighs, aspirationFailLows;
+    long reductions;       // Late moves scouted a ply less deep
+    long futilityPrunes;   // Moves at the horizon skipped as unable to matter
+    long quiescenceNodes;  // States examined by quiescence search, also counted in nodes
+    long[] iterationNanos = new long[0];   // Time taken by each level, indexed by level
+    long[] iterationNodes = new long[0];   // States examined by the main thread in each level, indexed by level
+    double[] iterationUtilisation = new double[0];   // In split mode, processor time spent searching over time taken
+
+    /**
+     * Makes empty metrics, for MinMaxingAI to fill in as it adds up what its searchers did.
+     */
+    SearchMetrics() {
+    }
+
+    /**
+     * Makes the metrics for a move found by pondering, when no search was needed.
+     */
+    static SearchMetrics ponderHit(int depth, Move bestMove, int cacheSize) {
+        SearchMetrics metrics = new SearchMetrics();
+        metrics.ponderHit = true;
+        metrics.depth = depth;
+        metrics.bestMove = bestMove;
+        metrics.cacheSize = cacheSize;
+        return metrics;
+    }
+
+    /**
+     * Makes the metrics for a move found in the opening book, when no search was needed.
+     */
+    static SearchMetrics bookHit(int depth, Move bestMove, int cacheSize) {
+        SearchMetrics metrics = new SearchMetrics();
+        metrics.bookHit = true;
+        metrics.depth = depth;
+        metrics.bestMove = bestMove;
+        metrics.cacheSize = cacheSize;
+        return metrics;
+    }
+
+    public boolean isPondering() {
+        return pondering;
+    }
+
+    public boolean isPonderHit() {
+        return ponderHit;
+    }
+
+    public boolean isBookHit() {
+        return bookHit;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public Move getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Gets the rating of the best move, for the player to move. It is 0 when no search was needed.
+     */
+    public int getRating() {
+        return rating;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getNodesPerSecond() {
+        return (nanos > 0) ? (long) (nodes * 1e9 / nanos) : 0;
+    }
+
+    /**
+     * Gets how many times more states the last iteration took than the one before, a ply (two levels) shallower,
+     * which is how much the search grows for each extra ply.
+     * @return The effective branching factor, or 0 if fewer than two iterations finished.
+     */
+    public double getEffectiveBranchingFactor() {
+        if ((depth < 3) || (depth >= iterationNodes.length) || (iterationNodes[depth - 2] == 0)) return 0;
+        return (double) iterationNodes[depth] / iterationNodes[depth - 2];
+    }
+
+    public long getAlphaCutoffs() {
+        return alphaCutoffs;
+    }
+
+    public long getBetaCutoffs() {
+        return betaCutoffs;
+    }
+
+    /**
+     * Gets the cut-offs of either kind made at each ply, where ply 0 is the position searched.
+     */
+    public long[] getCutoffsByPly() {
+        return cutoffsByPly.clone();
+    }
+
+    public long getCacheProbes() {
+        return cacheProbes;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheOverdrives() {
+        return cacheOverdrives;
+    }
+
+    public long getCacheCollisions() {
+        return cacheCollisions;
+    }
+
+    /**
+     * Gets the fraction of cache lookups that found a rating good enough to use, searched at least as deep as needed.
+     */
+    public double getCacheHitRate() {
+        return (cacheProbes > 0) ? (double) (cacheHits + cacheOverdrives) / cacheProbes : 0;
+    }
+
+    /**
+     * Gets the fraction of cache lookups that missed because other positions had filled the bucket.
+     */
+    public double getCacheCollisionRate() {
+        return (cacheProbes > 0) ? (double) cacheCollisions / cacheProbes : 0;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getHeuristicCalls() {
+        return heuristicCalls;
+    }
+
+    /**
+     * Gets how many positions were handed to the endgame solver. The states it examined are counted in
+     * getNodes().
+     */
+    public long getEndgameSolves() {
+        return endgameSolves;
+    }
+
+    /**
+     * Gets how many moves searched with a null window, to prove they were no better than the first, turned out better
+     * and were searched again with the whole window.
+     */
+    public long getResearches() {
+        return researches;
+    }
+
+    /**
+     * Gets how many times a level's rating came out above its aspiration window, so that it was searched again.
+     */
+    public long getAspirationFailHighs() {
+        return aspirationFailHighs;
+    }
+
+    /**
+     * Gets how many times a level's rating came out below its aspiration window, so that it was searched again.
+     */
+    public long getAspirationFailLows() {
+        return aspirationFailLows;
+    }
+
+    /**
+     * Gets how many moves late in the ordering were searched a ply less deep, by MinMaxingAI.setLateMoveReductions().
+     */
+    public long getReductions() {
+        return reductions;
+    }
+
+    /**
+     * Gets how many moves at the horizon were skipped by MinMaxingAI.setFutilityPruning().
+     */
+    public long getFutilityPrunes() {
+        return futilityPrunes;
+    }
+
+    /**
+     * Gets how many states quiescence search examined at the search horizon, by MinMaxingAI.setQuiescence(). These
+     * are also counted in getNodes().
+     */
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+
+    /**
+     * Gets the time taken by each level of iterative deepening, indexed by level, from 1 to getDepth(). Deepening goes
+     * a ply, or two levels, at a time, so every other level was not searched and is 0.
+     */
+    public long[] getIterationNanos() {
+        return iterationNanos.clone();
+    }
+
+    /**
+     * Gets the states examined by the main thread in each level of iterative deepening, indexed by level.
+     */
+    public long[] getIterationNodes() {
+        return iterationNodes.clone();
+    }
+
+    /**
+     * Gets, for each level, the processor time all threads spent searching divided by the time the level took: how
+     * many threads split mode kept busy on average. That is not a speedup, as some of the work may be wasted on moves
+     * a brother cuts off. Without split mode it is 0.
+     */
+    public double[] getIterationUtilisation() {
+        return iterationUtilisation.clone();
+    }
+
+    @Override
+    public String toString() {
+        if (ponderHit) return "Ponder hit, playing move found to depth " + depth + ".";
+        if (bookHit) return "Book hit, playing move found to depth " + depth + ".";
+        StringBuilder text = new StringBuilder();
+        if (pondering) text.append("Pondered to depth ").append(depth).append(". ");
+        text.append("MinMaxing examined ").append(nodes).append(" states in ").append(nanos / 1000000)
+                .append("ms (").append(getNodesPerSecond()).append(" states/s) to depth ").append(depth)
+                .append(", branching factor ").append(String.format("%.2f", getEffectiveBranchingFactor()))
+                .append(", ").append(alphaCutoffs).append(" alpha cut-offs, ").append(betaCutoffs)
+                .append(" beta cut-offs, ").append(heuristicCalls).append(" heuristic calls, ").append(endgameSolves)
+                .append(" endgame solves.\n");
+        text.append(researches).append(" null window re-searches, ").append(aspirationFailHighs)
+                .append(" aspiration fail highs, ").append(aspirationFailLows).append(" fail lows, ").append(reductions)
+                .append(" late move reductions, ").append(futilityPrunes).append(" futility prunes, ")
+                .append(quiescenceNodes).append(" quiescence states.\n");
+        text.append("Cache size is ").append(cacheSize).append(", ").append(cacheHits).append(" hits, ")
+                .append(cacheOverdrives).append(" overdrives, ").append(cacheCollisions)
+                .append(" bucket collisions in ").append(cacheProbes).append(" probes.\n");
+        for (int level=1; level<iterationNodes.length; level++) {
+            if (iterationNodes[level] == 0) continue;
+            text.append("Depth ").append(level).append(" took ").append(iterationNanos[level] / 1000000)
+                    .append("ms, ").append(iterationNodes[level]).append(" states");
+            if (iterationUtilisation[level] > 0) {
+                text.append(", split utilisation ").append(String.format("%.2f", iterationUtilisation[level]));
+            }
+            text.append(".\n");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package ai;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Adds up the metrics of every search of the AIs it listens to, and publishes the totals over JMX, so that engine
+ * throughput can be watched from a JMX console or dashboard while games are running.
+ * One SearchStats may listen to several AIs, searching on different threads.
+ */
+public class SearchStats implements SearchStatsMXBean, MetricsListener {
+
+    long searches;
+    long nodes;
+    long nanos;
+    long cacheProbes, cacheHits, cacheCollisions;
+    long heuristicCalls;
+    long researches, aspirationFailHighs, aspirationFailLows;
+    long ponderHits;
+    long bookHits;
+    SearchMetrics last;
+
+    /**
+     * Creates a SearchStats and registers it with the platform MBean server, replacing any registered under the same
+     * name. Add it to AIs with MinMaxingAI.addMetricsListener().
+     * @param name The name to publish it under, as ai:type=SearchStats,name=name.
+     * @return The new SearchStats.
+     */
+    public static SearchStats register(String name) {
+        SearchStats stats = new SearchStats();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("ai:type=SearchStats,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            server.registerMBean(stats, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register search statistics " + name, e);
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized void searchFinished(SearchMetrics metrics) {
+        if (metrics.isPondering()) return;
+        last = metrics;
+        searches++;
+        if (metrics.isPonderHit()) ponderHits++;
+        if (metrics.isBookHit()) bookHits++;
+        nodes += metrics.getNodes();
+        nanos += metrics.getNanos();
+        cacheProbes += metrics.getCacheProbes();
+        cacheHits += metrics.getCacheHits() + metrics.getCacheOverdrives();
+        cacheCollisions += metrics.getCacheCollisions();
+        heuristicCalls += metrics.getHeuristicCalls();
+        researches += metrics.getResearches();
+        aspirationFailHighs += metrics.getAspirationFailHighs();
+        aspirationFailLows += metrics.getAspirationFailLows();
+    }
+
+    @Override
+    public synchronized long getSearches() {
+        return searches;
+    }
+
+    @Override
+    public synchronized long getTotalNodes() {
+        return nodes;
+    }
+
+    @Override
+    public synchronized long getTotalMillis() {
+        return nanos / 1000000;
+    }
+
+    @Override
+    public synchronized long getAverageNodesPerSecond() {
+        return (nanos > 0) ? (long) (nodes * 1e9 / nanos) : 0;
+    }
+
+    @Override
+    public synchronized long getLastNodesPerSecond() {
+        return (last != null) ? last.getNodesPerSecond() : 0;
+    }
+
+    @Override
+    public synchronized int getLastDepth() {
+        return (last != null) ? last.getDepth() : 0;
+    }
+
+    @Override
+    public synchronized double getLastEffectiveBranchingFactor() {
+        return (last != null) ? last.getEffectiveBranchingFactor() : 0;
+    }
+
+    @Override
+    public synchronized double getCacheHitRate() {
+        return (cacheProbes > 0) ? (double) cacheHits / cacheProbes : 0;
+    }
+
+    @Override
+    public synchronized double getCacheCollisionRate() {
+        return (cacheProbes > 0) ? (double) cacheCollisions / cacheProbes : 0;
+    }
+
+    @Override
+    public synchronized long getTotalHeuristicCalls() {
+        return heuristicCalls;
+    }
+
+    @Override
+    public synchronized long getTotalResearches() {
+        return researches;
+    }
+
+    @Override
+    public synchronized long getAspirationFailHighs() {
+        return aspirationFailHighs;
+    }
+
+    @Override
+    public synchronized long getAspirationFailLows() {
+        return aspirationFailLows;
+    }
+
+    @Override
+    public synchronized long getPonderHits() {
+        return ponderHits;
+    }
+
+    @Override
+    public synchronized long getBookHits() {
+        return bookHits;
+    }
+
+    @Override
+    public synchronized void reset() {
+        searches = 0;
+        nodes = 0;
+        nanos = 0;
+        cacheProbes = 0;
+        cacheHits = 0;
+        cacheCollisions = 0;
+        heuristicCalls = 0;
+        researches = 0;
+        aspirationFailHighs = 0;
+        aspirationFailLows = 0;
+        ponderHits = 0;
+        bookHits = 0;
+        last = null;
+    }
+}
@@ -0,0 +1,43 @@
+package ai;
+
+/**
+ * The search statistics SearchStats publishes over JMX: totals since it was registered, and figures for the most
+ * recent search.
+ */
+public interface SearchStatsMXBean {
+
+    long getSearches();
+
+    long getTotalNodes();
+
+    long getTotalMillis();
+
+    long getAverageNodesPerSecond();
+
+    long getLastNodesPerSecond();
+
+    int getLastDepth();
+
+    double getLastEffectiveBranchingFactor();
+
+    double getCacheHitRate();
+
+    double getCacheCollisionRate();
+
+    long getTotalHeuristicCalls();
+
+    long getTotalResearches();
+
+    long getAspirationFailHighs();
+
+    long getAspirationFailLows();
+
+    long getPonderHits();
+
+    long getBookHits();
+
+    /**
+     * Starts counting again from nothing.
+     */
+    void reset();
+}
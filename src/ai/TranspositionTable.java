@@ -0,0 +1,316 @@
+package ai;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A fixed-size transposition table, mapping Zobrist keys to the result of searching that position.
+ *
+ * The table is preallocated as two parallel long arrays, so probing and storing never allocate. Entries are grouped
+ * in buckets of two slots: the first slot keeps the deepest search of any position mapping to that bucket, the second
+ * is always overwritten by whatever was stored last.
+ *
+ * Each entry packs the best move, the rating, the depth searched, whether the rating is exact or only a bound, the
+ * search it was stored in (its age) and the number of empty squares in the position (its staleness) into one long.
+ * Use the static accessors to unpack the value returned by probe().
+ *
+ * The table can be shared by several search threads without locking. Each slot stores its key XORed with its entry,
+ * so if two threads write the same slot at once and a reader sees the key of one and the entry of the other, the key
+ * check fails and the slot reads as a miss rather than as a wrong result. The count of filled slots is not
+ * synchronised, so with several threads it is only approximate.
+ *
+ * Since the number of pieces on the board never goes down, positions with more empty squares than the current one
+ * can never be reached again. Rather than finding and clearing their slots, prune() just moves the threshold of empty
+ * squares above which entries are dead: they read as misses, and their slots as free for the next store(). Pruning
+ * takes the same time however full the table is, and the slots are reclaimed as they are needed.
+ *
+ * The entries can be saved to a snapshot file with save() and read back with load(), so a new table starts with what
+ * an earlier one found. A snapshot is a 24 byte header followed by the filled slots, in no particular order:
+ *
+ *   header: int SNAPSHOT_MAGIC, int SNAPSHOT_VERSION, long tag, int number of entries, int 0
+ *   entry:  long Zobrist key, long packed entry
+ *
+ * All values are big-endian. The tag is chosen by the caller to say what the ratings mean, such as which heuristic
+ * made them, and load() skips a snapshot with a different tag.
+ */
+public class TranspositionTable {
+
+    // Bound types. The rating of a search is only exact if it fell inside the alpha-beta window.
+    public static final int EXACT = 1;  // The rating is the true rating of the position.
+    public static final int LOWER = 2;  // The search failed high: the true rating is at least this.
+    public static final int UPPER = 3;  // The search failed low: the true rating is at most this.
+
+    static final int SLOT_BYTES = 16;
+
+    // Bit layout of an entry. A stored entry always has a non-zero bound, so an entry of 0 means an empty slot.
+    static final int MOVE_SHIFT = 0;       // 14 bits: packed move
+    static final int SCORE_SHIFT = 14;     // 16 bits: rating, offset so it is never negative
+    static final int DEPTH_SHIFT = 30;     // 8 bits: depth searched
+    static final int BOUND_SHIFT = 38;     // 2 bits: EXACT, LOWER or UPPER
+    static final int AGE_SHIFT = 40;       // 8 bits: search the entry was stored in
+    static final int EMPTIES_SHIFT = 48;   // 7 bits: empty squares in the position
+    static final int SCORE_OFFSET = 32768;
+
+    public static final int SNAPSHOT_MAGIC = 0x49545453;   // "ITTS"
+    public static final int SNAPSHOT_VERSION = 1;
+    static final int SNAPSHOT_HEADER_BYTES = 24;
+    static final int SNAPSHOT_BUFFER_BYTES = 1 << 16;
+
+    long[] keys;       // Zobrist key XOR entry, see above
+    long[] entries;
+    int mask;          // Number of buckets - 1
+    int age;
+    int threshold = EMPTIES_LIMIT;   // Entries for positions with more empty squares than this are dead
+
+    // Number of filled slots, live or dead, for each number of empty squares, so that the number of live ones can be
+    // counted without a scan.
+    static final int EMPTIES_LIMIT = 0x7F;
+    int[] filled = new int[EMPTIES_LIMIT + 1];
+
+    /**
+     * Creates a new table using at most the given amount of memory.
+     * @param megabytes The memory budget in MB. The table is rounded down to a power of two slots.
+     */
+    public TranspositionTable(int megabytes) {
+        assert megabytes > 0 : "TranspositionTable created with an invalid size " + megabytes;
+        long slots = Long.highestOneBit(((long) megabytes << 20) / SLOT_BYTES);
+        slots = Math.max(2, Math.min(slots, 1 << 30));
+        keys = new long[(int) slots];
+        entries = new long[(int) slots];
+        mask = (int) (slots / 2) - 1;
+    }
+
+    /**
+     * Looks up a position.
+     * @param key The Zobrist key of the position.
+     * @return The packed entry for the position, or 0 if it is not in the table.
+     */
+    public long probe(long key) {
+        int slot = bucket(key);
+        long entry = entries[slot];
+        if (live(entry) && ((keys[slot] ^ entry) == key)) return entry;
+        entry = entries[slot + 1];
+        if (live(entry) && ((keys[slot + 1] ^ entry) == key)) return entry;
+        return 0;
+    }
+
+    /**
+     * Checks if the bucket a position maps to is filled by other positions, for statistics.
+     * @param key The Zobrist key of the position.
+     * @return True if both slots of the bucket hold some other position.
+     */
+    public boolean collides(long key) {
+        int slot = bucket(key);
+        long first = entries[slot];
+        long second = entries[slot + 1];
+        return live(first) && ((keys[slot] ^ first) != key) && live(second) && ((keys[slot + 1] ^ second) != key);
+    }
+
+    /**
+     * Stores the result of searching a position.
+     * @param key The Zobrist key of the position.
+     * @param move The best move found, packed with Move.packed().
+     * @param score The rating of the position.
+     * @param depth The depth the position was searched to.
+     * @param bound EXACT, LOWER or UPPER.
+     * @param empties The number of empty squares in the position.
+     */
+    public void store(long key, int move, int score, int depth, int bound, int empties) {
+        long entry = ((long) move << MOVE_SHIFT)
+                | ((long) (score + SCORE_OFFSET) << SCORE_SHIFT)
+                | ((long) depth << DEPTH_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | ((long) age << AGE_SHIFT)
+                | ((long) empties << EMPTIES_SHIFT);
+        put(key, entry);
+    }
+
+    // Stores a packed entry, as built by store().
+    void put(long key, long entry) {
+        int depth = depth(entry);
+        int slot = bucket(key);
+        // The depth-preferred slot takes the entry if it is free or dead, holds the same position, is left over from
+        // an earlier search, or was searched no deeper than this. Otherwise the entry goes in the always-replace slot.
+        long old = entries[slot];
+        if (live(old) && ((keys[slot] ^ old) != key) && (age(old) == age) && (depth(old) > depth)) {
+            slot++;
+            old = entries[slot];
+        }
+        if (old != 0) filled[empties(old)]--;
+        filled[empties(entry)]++;
+        keys[slot] = key ^ entry;
+        entries[slot] = entry;
+    }
+
+    /**
+     * Marks the start of a new search, so that entries from earlier searches are replaced first.
+     */
+    public void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    /**
+     * Removes every entry for a position with more empty squares than the given number. Since the number of pieces on
+     * the board never goes down, those positions can never be reached again. The entries are only marked dead, all at
+     * once, so this takes the same time however full the table is. A higher threshold than before, as at the start of
+     * a new game, brings back entries whose slots haven't been reused since. They are only still right if they were
+     * rated for the same player, so a caller searching for the other player now must clear() the table instead.
+     * @param threshold The number of empty squares in the current position.
+     */
+    public void prune(int threshold) {
+        this.threshold = Math.min(threshold, EMPTIES_LIMIT);
+    }
+
+    boolean live(long entry) {
+        return (entry != 0) && (empties(entry) <= threshold);
+    }
+
+    /**
+     * Saves every entry to a snapshot file. The snapshot is written beside the file and then moved over it, so the file
+     * always holds a whole snapshot. Searches may go on while saving; a slot they write to at the same time may be
+     * saved under a wrong key, which only makes it useless, as in probe().
+     * @param file The snapshot file. Its directory is created if need be.
+     * @param tag What the entries mean, to be checked by load().
+     * @return The number of entries saved.
+     * @throws IOException If the file can't be written.
+     */
+    public int save(Path file, long tag) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        int count = 0;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_BYTES);
+                channel.position(SNAPSHOT_HEADER_BYTES);
+                for (int slot = 0; slot < entries.length; slot++) {
+                    long entry = entries[slot];
+                    if (!live(entry)) continue;
+                    if (buffer.remaining() < SLOT_BYTES) write(channel, buffer);
+                    buffer.putLong(keys[slot] ^ entry).putLong(entry);
+                    count++;
+                }
+                write(channel, buffer);
+                // The header goes in last, when the number of entries is known.
+                buffer.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(tag).putInt(count).putInt(0);
+                channel.position(0);
+                write(channel, buffer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return count;
+    }
+
+    static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Adds the entries of a snapshot file to the table, mapping the file into memory rather than reading it. Entries
+     * for positions with more empty squares than the given number are left out, as in prune(). The others are stored
+     * as if by the current search, the deepest winning where several map to the same slot.
+     * @param file The snapshot file, written by save().
+     * @param tag What the entries must mean. A snapshot saved with any other tag is ignored.
+     * @param threshold The number of empty squares in the current position.
+     * @return The number of entries added, or -1 if the snapshot has a different tag.
+     * @throws IOException If the file can't be read or isn't a snapshot.
+     */
+    public int load(Path file, long tag, int threshold) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if ((buffer.capacity() < SNAPSHOT_HEADER_BYTES) || (buffer.getInt(0) != SNAPSHOT_MAGIC)) {
+            throw new IOException("Not a transposition table snapshot");
+        }
+        if (buffer.getInt(4) != SNAPSHOT_VERSION) {
+            throw new IOException("Snapshot version " + buffer.getInt(4) + " is not supported");
+        }
+        int count = buffer.getInt(16);
+        if (buffer.capacity() != SNAPSHOT_HEADER_BYTES + (long) count * SLOT_BYTES) {
+            throw new IOException("Snapshot is truncated");
+        }
+        if (buffer.getLong(8) != tag) return -1;
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            long key = buffer.getLong(SNAPSHOT_HEADER_BYTES + i * SLOT_BYTES);
+            long entry = buffer.getLong(SNAPSHOT_HEADER_BYTES + i * SLOT_BYTES + 8);
+            if ((bound(entry) == 0) || (empties(entry) > threshold)) continue;
+            put(key, (entry & ~(0xFFL << AGE_SHIFT)) | ((long) age << AGE_SHIFT));
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Empties the whole table.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(entries, 0);
+        Arrays.fill(filled, 0);
+        threshold = EMPTIES_LIMIT;
+    }
+
+    /**
+     * Gets the number of positions stored in the table.
+     * @return The number of filled slots.
+     */
+    public int size() {
+        int used = 0;
+        for (int empties = 0; empties <= threshold; empties++) {
+            used += filled[empties];
+        }
+        return used;
+    }
+
+    /**
+     * Gets the number of positions the table can hold.
+     * @return The number of slots.
+     */
+    public int capacity() {
+        return entries.length;
+    }
+
+    int bucket(long key) {
+        // The low bits of the key pick the bucket; mix in the high bits so both halves of the key count.
+        return ((int) (key ^ (key >>> 32)) & mask) << 1;
+    }
+
+    // Accessors for the fields of a packed entry returned by probe().
+
+    public static int move(long entry) {
+        return (int) (entry >>> MOVE_SHIFT) & 0x3FFF;
+    }
+
+    public static int score(long entry) {
+        return ((int) (entry >>> SCORE_SHIFT) & 0xFFFF) - SCORE_OFFSET;
+    }
+
+    public static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    public static int bound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & 0x3;
+    }
+
+    public static int age(long entry) {
+        return (int) (entry >>> AGE_SHIFT) & 0xFF;
+    }
+
+    public static int empties(long entry) {
+        return (int) (entry >>> EMPTIES_SHIFT) & 0x7F;
+    }
+}
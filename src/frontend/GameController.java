@@ -3,6 +3,7 @@ package frontend;
 import ai.AI;
 import javafx.animation.FillTransition;
 import javafx.animation.TranslateTransition;
+import javafx.application.Platform;
 import javafx.scene.control.Label;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Pane;
@@ -14,6 +15,9 @@ import javafx.util.Duration;
 import model.Move;
 import model.State;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class GameController {
 
 
@@ -33,7 +37,8 @@ public class GameController {
 
     int fromx, fromy;         // Location of square selected by mouse
 
-    Thread aiThread;          // Thread handle to run the AI in a separate thread to prevent it freezing the window
+    ExecutorService aiExecutor; // Runs the AI in a separate thread to prevent it freezing the window
+    int aiTurn;               // Counts AI turns, so a move decided after its turn was abandoned can be ignored
 
     // Standard strings
     final String FIRST_CLICK = "Click a piece to move.";
@@ -137,16 +142,46 @@ public class GameController {
             if (activeAI == null) { // Human player, set to instructions then let dispatcher run
                 squareSelected = false;
                 instructions.setText(FIRST_CLICK);
+                // If the other player is an AI, let it think on the human's time.
+                AI waitingAI = ai[gameState.whoseNotTurn() - 1];
+                if (waitingAI != null) waitingAI.ponder(new State(gameState));
             } else { // AI player, start thinking thread
-                instructions.setText(aiName[gameState.whoseTurn() - 1] + "..");
+                String name = aiName[gameState.whoseTurn() - 1];
+                instructions.setText(name + "..");
                 aiThinking = true;
-                aiThread = new Thread(() -> { Move x = activeAI.nextMove(gameState); aiMoveDecided(x); });
-                aiThread.run();
+                // The AI gets its own copy of the board, and reports back on the JavaFX thread. If the turn has been
+                // abandoned by then, the move is ignored.
+                State position = new State(gameState);
+                int turn = ++aiTurn;
+                activeAI.setProgressListener((depth, states, nanos, bestMove) ->
+                        showProgress(turn, name, depth, states, nanos, bestMove));
+                aiExecutor.execute(() -> {
+                    Move x = activeAI.nextMove(position);
+                    Platform.runLater(() -> { if (turn == aiTurn) aiMoveDecided(x); });
+                });
             }
         }
     }
 
-    // Called from AI manager thread when AI has finished calculating its move
+    // Called from AI thread while the AI is thinking, each time its search gets a level deeper
+    void showProgress(int turn, String name, int depth, long states, long nanos, Move bestMove) {
+        long rate = (nanos > 0) ? (states * 1000000000L) / nanos : 0;
+        String text = name + ".. depth " + depth + ", " + rate + " states/s, best " + bestMove;
+        Platform.runLater(() -> { if ((turn == aiTurn) && aiThinking) instructions.setText(text); });
+    }
+
+    // Stops the AIs if they are thinking or pondering, and ignores any move they come up with. Called when the game
+    // window is closed.
+    public void cancelAI() {
+        aiTurn++;
+        aiThinking = false;
+        if (ai == null) return;
+        for (AI each : ai) {
+            if (each != null) each.cancel();
+        }
+    }
+
+    // Called on the JavaFX thread when AI has finished calculating its move
     void aiMoveDecided(Move nextMove) {
         aiThinking = false;
         assert gameState.moveIsValid(nextMove) : "AI tried to make invalid move" + nextMove;
@@ -259,12 +294,17 @@ public class GameController {
         marker.setVisible(false);
         board.getChildren().add(marker);
 
-        gameState = new State();
-        gameState.setBoard(0,0,1);
-        gameState.setBoard(0,9,2);
-        gameState.setBoard(9, 0, 2);
-        gameState.setBoard(9,9,1);
+        gameState = State.start();
         gameOver = false;
         pieceForSpace = new Circle[10][10];
+
+        // The AI thread runs below normal priority so that animations stay smooth while it thinks, and doesn't keep
+        // the program running once the window is closed.
+        aiExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AI");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
     }
 }
@@ -1,6 +1,8 @@
 package frontend;
 
 import ai.AI;
+import ai.MinMaxingAI;
+import ai.SearchStats;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
@@ -10,8 +12,15 @@ import javafx.scene.Scene;
 import javafx.scene.control.ChoiceBox;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 public class PregameController {
 
+    // How often each AI saves its cache snapshot during a game, in milliseconds.
+    static final long SNAPSHOT_INTERVAL = 60000;
+
     public ChoiceBox<String> p1choice;
 
     public ChoiceBox<String> p2choice;
@@ -53,11 +62,41 @@ public class PregameController {
             ai2 = (AI)aiClass.newInstance();
         }
 
+        // Publish each player's search statistics over JMX, and keep each player's cache between games.
+        if (ai1 instanceof MinMaxingAI) {
+            ((MinMaxingAI) ai1).addMetricsListener(SearchStats.register("Player 1"));
+            ((MinMaxingAI) ai1).setCacheSnapshot(snapshotFile(aiName1, 1), SNAPSHOT_INTERVAL);
+        }
+        if (ai2 instanceof MinMaxingAI) {
+            ((MinMaxingAI) ai2).addMetricsListener(SearchStats.register("Player 2"));
+            ((MinMaxingAI) ai2).setCacheSnapshot(snapshotFile(aiName2, 2), SNAPSHOT_INTERVAL);
+        }
+
         controller.setAIs(ai1,aiName1,ai2,aiName2);
 
         stage.setScene(new Scene(root, 500, 600));
+        stage.setOnCloseRequest(e -> {
+            controller.cancelAI();
+            saveCacheSnapshot(ai1);
+            saveCacheSnapshot(ai2);
+        });
         stage.show();
     }
 
+    // Where each player's cache snapshot is kept: cache/name-player.tt, unless the infection.cache system property
+    // names another directory.
+    static Path snapshotFile(String aiName, int player) {
+        return Paths.get(System.getProperty("infection.cache", "cache"), aiName + "-" + player + ".tt");
+    }
+
+    static void saveCacheSnapshot(AI ai) {
+        if (!(ai instanceof MinMaxingAI)) return;
+        try {
+            ((MinMaxingAI) ai).saveCacheSnapshot();
+        } catch (IOException e) {
+            System.err.println("Could not save cache snapshot: " + e.getMessage());
+        }
+    }
+
 
 }
@@ -1,6 +1,9 @@
 package model;
 /**
  * A Move in the game.
+ *
+ * Inside the search, moves are passed around packed into a single int instead (see pack()), so that generating and
+ * sorting them allocates nothing. Move objects are only made when a move is handed to or from an AI.
  */
 public class Move {
 
@@ -16,6 +19,54 @@ public class Move {
         toy = _toy;
     }
 
+    /**
+     * Packs this move into an int, as the from and to square numbers in 7 bits each.
+     * No valid move packs to 0, since a move never starts and ends on the same square.
+     * @return The packed move.
+     */
+    public int packed() {
+        return pack(State.square(fromx,fromy), State.square(tox,toy));
+    }
+
+    /**
+     * Packs a move given as square numbers into an int.
+     * @param from The square moved from.
+     * @param to The square moved to.
+     * @return The packed move.
+     */
+    public static int pack(int from, int to) {
+        return (from << 7) | to;
+    }
+
+    /**
+     * Gets the square a packed move is from.
+     * @param packed The packed move.
+     * @return The square number moved from.
+     */
+    public static int fromSquare(int packed) {
+        return packed >>> 7;
+    }
+
+    /**
+     * Gets the square a packed move is to.
+     * @param packed The packed move.
+     * @return The square number moved to.
+     */
+    public static int toSquare(int packed) {
+        return packed & 0x7F;
+    }
+
+    /**
+     * Creates a Move from one packed with packed().
+     * @param packed The packed move.
+     * @return A new Move object.
+     */
+    public static Move unpack(int packed) {
+        int from = fromSquare(packed);
+        int to = toSquare(packed);
+        return new Move(State.squareX(from),State.squareY(from),State.squareX(to),State.squareY(to));
+    }
+
     @Override
     public String toString() {
         return fromx + "," + fromy + " -> " + tox + "," + toy;
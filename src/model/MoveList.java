@@ -0,0 +1,110 @@
+package model;
+
+/**
+ * A reusable list of moves, filled by State.generateMoves().
+ * Moves are stored packed into ints (see Move.pack()) in arrays big enough for any position, so filling a list
+ * allocates nothing. Keep one list per search ply and refill it; convert to Move objects only when handing a move
+ * out of the AI. Each move also has a score, which move ordering can set so that selectBest() brings the best moves
+ * forward.
+ */
+public class MoveList {
+
+    int[] moves;
+    int[] scores;
+    int size;
+
+    /**
+     * Constructs a new empty MoveList, with room for the moves of any position.
+     */
+    public MoveList() {
+        moves = new int[State.MAX_MOVES];
+        scores = new int[State.MAX_MOVES];
+        size = 0;
+    }
+
+    /**
+     * Empties the list.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Adds a packed move to the end of the list, with a score of 0.
+     */
+    void add(int move) {
+        moves[size] = move;
+        scores[size] = 0;
+        size++;
+    }
+
+    /**
+     * Swaps two moves in the list, for putting the moves most worth trying first at the front.
+     * @param i The position of one move.
+     * @param j The position of the other move.
+     */
+    public void swap(int i, int j) {
+        int temp = moves[i];
+        moves[i] = moves[j];
+        moves[j] = temp;
+        int tempScore = scores[i];
+        scores[i] = scores[j];
+        scores[j] = tempScore;
+    }
+
+    /**
+     * Sets the score of a move, for selectBest().
+     * @param index The position of the move in the list.
+     * @param score The score. Higher scores are tried first.
+     */
+    public void setScore(int index, int score) {
+        scores[index] = score;
+    }
+
+    /**
+     * Gets the score of a move.
+     * @param index The position of the move in the list.
+     * @return The score set with setScore(), or 0.
+     */
+    public int getScore(int index) {
+        return scores[index];
+    }
+
+    /**
+     * Brings the highest scoring move from a position onwards to that position, keeping the rest in order.
+     * Calling this for each position as the list is walked tries the moves best first, without sorting the moves
+     * that a cut-off means will never be looked at. Moves with equal scores keep the order they were generated in.
+     * @param index The position to fill.
+     */
+    public void selectBest(int index) {
+        int best = index;
+        for (int i=index+1; i<size; i++) {
+            if (scores[i] > scores[best]) best = i;
+        }
+        if (best == index) return;
+        int bestMove = moves[best];
+        int bestScore = scores[best];
+        System.arraycopy(moves, index, moves, index + 1, best - index);
+        System.arraycopy(scores, index, scores, index + 1, best - index);
+        moves[index] = bestMove;
+        scores[index] = bestScore;
+    }
+
+    /**
+     * Gets the number of moves in the list.
+     * @return The number of moves.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets a move from the list.
+     * @param index The position of the move in the list, from 0 to size()-1.
+     * @return The move, packed with Move.pack(). Use Move.unpack() to turn it into a Move object.
+     */
+    public int get(int index) {
+        assert index < size : "MoveList.get called with an index out of range " + index;
+        return moves[index];
+    }
+}
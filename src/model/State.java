@@ -1,14 +1,110 @@
 package model;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 public class State {
 
     public static final int XSIZE = 10;
     public static final int YSIZE = 10;
 
-    protected final int[][] board;
+    public static final int SQUARES = XSIZE * YSIZE;
+
+    // The most moves any position can have: at most one clone to each empty square, plus up to 16 jumps to it but no
+    // more than 16 from each piece. That peaks with the board half empty and half ours.
+    public static final int MAX_MOVES = (SQUARES / 2) * 17;
+
+    // Neighbourhood masks for each square, split into the low (squares 0-63) and high (squares 64-99) words.
+    // NEAR is every square a clone can reach (distance 1), FAR is every square a jump can reach (distance 2).
+    static final long[] NEAR_LOW = new long[SQUARES];
+    static final long[] NEAR_HIGH = new long[SQUARES];
+    static final long[] FAR_LOW = new long[SQUARES];
+    static final long[] FAR_HIGH = new long[SQUARES];
+
+    static {
+        for (int x=0; x<XSIZE; x++) {
+            for (int y=0; y<YSIZE; y++) {
+                int square = square(x,y);
+                for (int dx=-2; dx<=2; dx++) {
+                    for (int dy=-2; dy<=2; dy++) {
+                        if (((dx == 0) && (dy == 0)) || !State.inBounds(x + dx, y + dy)) continue;
+                        int target = square(x+dx,y+dy);
+                        boolean near = (Math.abs(dx) <= 1) && (Math.abs(dy) <= 1);
+                        if (target < 64) {
+                            if (near) NEAR_LOW[square] |= 1L << target; else FAR_LOW[square] |= 1L << target;
+                        } else {
+                            if (near) NEAR_HIGH[square] |= 1L << target; else FAR_HIGH[square] |= 1L << target;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Zobrist keys: ZOBRIST[p][square] for a piece of player p on a square (row 0, empty, is all zero) and
+    // TURN_ZOBRIST[p] for player p to move. Seeded with a fixed value so keys are the same on every run.
+    static final long ZOBRIST_SEED = 0x1AFEC7105EEDL;
+    static final long[][] ZOBRIST = new long[3][SQUARES];
+    static final long[] TURN_ZOBRIST = new long[3];
+
+    static {
+        Random rnd = new Random(ZOBRIST_SEED);
+        for (int p=1; p<=2; p++) {
+            for (int square=0; square<SQUARES; square++) {
+                ZOBRIST[p][square] = rnd.nextLong();
+            }
+            TURN_ZOBRIST[p] = rnd.nextLong();
+        }
+    }
+
+    // The 8 symmetries of the board: SYMMETRIC_SQUARE[t][square] is where symmetry t takes a square, and
+    // INVERSE_SYMMETRY[t] is the symmetry that takes it back. Symmetry 0 leaves the board as it is; the others reflect
+    // it in x, in y or both, swap x and y, and combine that with the reflections, which covers the rotations.
+    public static final int SYMMETRIES = 8;
+    static final int[][] SYMMETRIC_SQUARE = new int[SYMMETRIES][SQUARES];
+    static final int[] INVERSE_SYMMETRY = new int[SYMMETRIES];
+    // SYMMETRIC_ZOBRIST[(p * SQUARES + square) * SYMMETRIES + t] is ZOBRIST[p] of the square symmetry t takes square
+    // to, laid out so that updating the keys of all the symmetries reads consecutive entries.
+    static final long[] SYMMETRIC_ZOBRIST = new long[3 * SQUARES * SYMMETRIES];
+
+    static {
+        for (int t=0; t<SYMMETRIES; t++) {
+            for (int x=0; x<XSIZE; x++) {
+                for (int y=0; y<YSIZE; y++) {
+                    int tx = ((t & 1) != 0) ? XSIZE - 1 - x : x;
+                    int ty = ((t & 2) != 0) ? YSIZE - 1 - y : y;
+                    SYMMETRIC_SQUARE[t][square(x,y)] = ((t & 4) != 0) ? square(ty,tx) : square(tx,ty);
+                }
+            }
+        }
+        for (int t=0; t<SYMMETRIES; t++) {
+            for (int u=0; u<SYMMETRIES; u++) {
+                boolean undoes = true;
+                for (int square=0; square<SQUARES; square++) {
+                    if (SYMMETRIC_SQUARE[u][SYMMETRIC_SQUARE[t][square]] != square) undoes = false;
+                }
+                if (undoes) INVERSE_SYMMETRY[t] = u;
+            }
+            for (int p=1; p<=2; p++) {
+                for (int square=0; square<SQUARES; square++) {
+                    int index = (p * SQUARES + square) * SYMMETRIES + t;
+                    SYMMETRIC_ZOBRIST[index] = ZOBRIST[p][SYMMETRIC_SQUARE[t][square]];
+                }
+            }
+        }
+    }
+
+    // The board as one bitboard per piece type: low[p] and high[p] hold the squares containing piece type p
+    // (0 for empty, 1 or 2 for a player), with squares numbered by square(x,y).
+    protected final long[] low;
+    protected final long[] high;
+    // Number of squares holding each piece type, kept up to date with the bitboards so counting is free.
+    protected final int[] counts;
     protected int whoseTurn;
+    protected long zobrist;
+    // The Zobrist key of the position each symmetry makes of this one, if trackSymmetries() has been called, or null.
+    // symmetricKeys[0] is the same as zobrist.
+    protected long[] symmetricKeys;
     protected ArrayList<Move> validMoves;
     protected boolean dirtyBoard;
 
@@ -20,7 +116,7 @@ public class State {
         String out = "";
         for (int y=0; y<YSIZE; y++) {
             for (int x=0; x<XSIZE;x++) {
-                switch(board[x][y]) {
+                switch(pieceAt(x,y)) {
                     case 0: out += "."; break;
                     case 1: out += "1"; break;
                     case 2: out += "2"; break;
@@ -36,13 +132,16 @@ public class State {
      * Constructs a new State with an empty board and the first player's turn.
      */
     public State() {
-        board = new int[XSIZE][YSIZE];
-        for(int y=0;y<YSIZE;y++)
-            for(int x=0;x<XSIZE;x++)
-                board[x][y] = 0;
+        low = new long[3];
+        high = new long[3];
+        low[0] = -1L;
+        high[0] = (1L << (SQUARES - 64)) - 1;
+        counts = new int[3];
+        counts[0] = SQUARES;
 
         dirtyBoard = true;
         whoseTurn = 1;
+        zobrist = TURN_ZOBRIST[1];
     }
 
     /**
@@ -50,14 +149,28 @@ public class State {
      * @param child The State to copy.
      */
     public State(State child) {
-        board = new int[XSIZE][YSIZE];
-        for (int x=0; x<XSIZE; x++) {
-            System.arraycopy(child.board[x], 0, board[x], 0, YSIZE);
-        }
+        low = child.low.clone();
+        high = child.high.clone();
+        counts = child.counts.clone();
         whoseTurn = child.whoseTurn;
+        zobrist = child.zobrist;
+        if (child.symmetricKeys != null) symmetricKeys = child.symmetricKeys.clone();
         dirtyBoard = true;
     }
 
+    /**
+     * Makes the usual starting position: each player has two opposite corners, and the first player is to move.
+     * @return The starting position.
+     */
+    public static State start() {
+        State board = new State();
+        board.setBoard(0,0,1);
+        board.setBoard(0,9,2);
+        board.setBoard(9,0,2);
+        board.setBoard(9,9,1);
+        return board;
+    }
+
     /**
      * Checks if a given coordinate is within the board.
      * @param x The x coordinate to check.
@@ -70,6 +183,35 @@ public class State {
         return x <= (XSIZE - 1) && y <= (YSIZE - 1);
     }
 
+    /**
+     * Gives the square number of a location, used to index the bitboards.
+     * Squares are numbered column by column, so scanning squares in order scans x then y like the old nested loops.
+     * @param x The x coordinate of the location.
+     * @param y The y coordinate of the location.
+     * @return The square number, from 0 to SQUARES-1.
+     */
+    public static int square(int x, int y) {
+        return x * YSIZE + y;
+    }
+
+    /**
+     * Gives the x coordinate of a square number.
+     * @param square The square number.
+     * @return The x coordinate.
+     */
+    public static int squareX(int square) {
+        return square / YSIZE;
+    }
+
+    /**
+     * Gives the y coordinate of a square number.
+     * @param square The square number.
+     * @return The y coordinate.
+     */
+    public static int squareY(int square) {
+        return square % YSIZE;
+    }
+
     /**
      * Gets the piece at a particular location on the board.
      * @param x The x coordinate of the location.
@@ -78,7 +220,12 @@ public class State {
      */
     public int pieceAt(int x,int y) {
         assert State.inBounds(x, y) : "pieceAt called with a location out of bounds " + x + "," + y;
-        return board[x][y];
+        int square = square(x,y);
+        long bit = 1L << square;
+        long[] word = (square < 64) ? low : high;
+        if ((word[1] & bit) != 0) return 1;
+        if ((word[2] & bit) != 0) return 2;
+        return 0;
     }
 
     /**
@@ -92,7 +239,7 @@ public class State {
         assert State.inBounds(x, y) : "setBoard called with a location out of bounds " + x + ", " + y;
         assert v <= 2 : "setBoard called with an invalid piece type " + v;
         assert v >= 0 : "setBoard called with an invalid piece type " + v;
-        board[x][y] = v;
+        place(square(x,y), v);
         dirtyBoard = true;
     }
 
@@ -104,6 +251,11 @@ public class State {
     public void setTurn(int t) {
         assert t <= 2 : "setTurn called with invalid player number " + t;
         assert t >= 1 : "setTurn called with invalid player number " + t;
+        long turn = TURN_ZOBRIST[whoseTurn] ^ TURN_ZOBRIST[t];
+        zobrist ^= turn;
+        if (symmetricKeys != null) {
+            for (int s=0; s<SYMMETRIES; s++) symmetricKeys[s] ^= turn;
+        }
         whoseTurn = t;
         dirtyBoard = true;
     }
@@ -116,6 +268,96 @@ public class State {
         return whoseTurn;
     }
 
+    /**
+     * Gets the 64-bit Zobrist key of this position, covering every piece and whose turn it is.
+     * The key is kept up to date as the board changes, so this costs nothing.
+     * @return The Zobrist key.
+     */
+    public long zobristKey() {
+        return zobrist;
+    }
+
+    /**
+     * Starts keeping the Zobrist key of every symmetric version of this position up to date, for symmetricKey() and
+     * canonicalSymmetry(). This makes every change to the board a little slower, so it is off unless asked for.
+     * Copies of this State keep them up to date too.
+     */
+    public void trackSymmetries() {
+        if (symmetricKeys != null) return;
+        symmetricKeys = new long[SYMMETRIES];
+        for (int t=0; t<SYMMETRIES; t++) {
+            long key = TURN_ZOBRIST[whoseTurn];
+            for (int p=1; p<=2; p++) {
+                for (int word=0; word<2; word++) {
+                    for (long bits = (word == 0) ? low[p] : high[p]; bits != 0; bits &= bits - 1) {
+                        key ^= ZOBRIST[p][SYMMETRIC_SQUARE[t][word * 64 + Long.numberOfTrailingZeros(bits)]];
+                    }
+                }
+            }
+            symmetricKeys[t] = key;
+        }
+    }
+
+    /**
+     * Gets the Zobrist key of the position a symmetry makes of this one. trackSymmetries() must have been called.
+     * @param symmetry The symmetry, from 0 to SYMMETRIES-1.
+     * @return The key.
+     */
+    public long symmetricKey(int symmetry) {
+        return symmetricKeys[symmetry];
+    }
+
+    /**
+     * Picks the symmetry whose version of this position has the lowest key. Every symmetric version of a position
+     * picks a symmetry that makes the same position of it, so that position's key can stand for all of them.
+     * trackSymmetries() must have been called.
+     * @return The symmetry, from 0 to SYMMETRIES-1. Of several giving the same key, the lowest.
+     */
+    public int canonicalSymmetry() {
+        int best = 0;
+        for (int t=1; t<SYMMETRIES; t++) {
+            if (symmetricKeys[t] < symmetricKeys[best]) best = t;
+        }
+        return best;
+    }
+
+    /**
+     * Applies a symmetry to a packed move.
+     * @param move The move, packed with Move.pack().
+     * @param symmetry The symmetry, from 0 to SYMMETRIES-1.
+     * @return The move the symmetry makes of it, packed.
+     */
+    public static int symmetricMove(int move, int symmetry) {
+        int[] squares = SYMMETRIC_SQUARE[symmetry];
+        return Move.pack(squares[Move.fromSquare(move)], squares[Move.toSquare(move)]);
+    }
+
+    /**
+     * Gets the symmetry that undoes another.
+     * @param symmetry The symmetry, from 0 to SYMMETRIES-1.
+     * @return The inverse symmetry.
+     */
+    public static int inverseSymmetry(int symmetry) {
+        return INVERSE_SYMMETRY[symmetry];
+    }
+
+    /**
+     * Puts a valid packed move in the form generateMoves() lists it in. All clones to a square lead to the same
+     * position, and are listed as a clone from the lowest numbered of the player's pieces next to it.
+     * @param move The move, packed with Move.pack().
+     * @return The same move, or an equivalent clone, packed. A move that isn't a valid clone is returned as it is.
+     */
+    public int generatedForm(int move) {
+        if (isJump(move)) return move;
+        int to = Move.toSquare(move);
+        int us = whoseTurn();
+        long nearLow = NEAR_LOW[to] & low[us];
+        long nearHigh = NEAR_HIGH[to] & high[us];
+        if (nearLow != 0) return Move.pack(Long.numberOfTrailingZeros(nearLow), to);
+        if (nearHigh != 0) return Move.pack(64 + Long.numberOfTrailingZeros(nearHigh), to);
+        return move;
+    }
+
 
     /**
      * Gives the number of the player opposing the specified one.
@@ -158,13 +400,64 @@ public class State {
     public int countPieces(int player) {
         assert player <= 2 : "countPieces called with an invalid piece type " + player;
         assert player >= 0 : "countPieces called with an invalid piece type " + player;
-        int count = 0;
-        for(int x=0;x<XSIZE;x++) {
-            for(int y=0; y<YSIZE; y++) {
-               if (pieceAt(x,y) == player) count++;
+        return counts[player];
+    }
+
+    /**
+     * Counts the enemy pieces a move would infect, without making it.
+     * @param move The move to check.
+     * @return The number of the opponent's pieces next to the square moved to.
+     */
+    public int infects(Move move) {
+        return infects(move.packed());
+    }
+
+    /**
+     * Counts the enemy pieces a packed move would infect, without making it.
+     * @param move The move to check, packed with Move.pack().
+     * @return The number of the opponent's pieces next to the square moved to.
+     */
+    public int infects(int move) {
+        int to = Move.toSquare(move);
+        int them = whoseNotTurn();
+        return Long.bitCount(NEAR_LOW[to] & low[them]) + Long.bitCount(NEAR_HIGH[to] & high[them]);
+    }
+
+    /**
+     * Checks if another state has exactly the same pieces on the board and the same player to move.
+     * @param other The State to compare with.
+     * @return True if both states represent the same position.
+     */
+    public boolean samePosition(State other) {
+        return (zobrist == other.zobrist) && (whoseTurn == other.whoseTurn)
+                && (low[1] == other.low[1]) && (high[1] == other.high[1])
+                && (low[2] == other.low[2]) && (high[2] == other.high[2]);
+    }
+
+    /**
+     * Puts a piece type on a square, removing whatever was there before.
+     * @param square The square number.
+     * @param v The player number whose piece should be placed, or 0 for empty.
+     */
+    void place(int square, int v) {
+        // Shifts in Java only use the bottom six bits, so this is the right bit within either word.
+        long bit = 1L << square;
+        long[] word = (square < 64) ? low : high;
+        int old = ((word[1] & bit) != 0) ? 1 : (((word[2] & bit) != 0) ? 2 : 0);
+        zobrist ^= ZOBRIST[old][square] ^ ZOBRIST[v][square];
+        if (symmetricKeys != null) {
+            int from = (old * SQUARES + square) * SYMMETRIES;
+            int to = (v * SQUARES + square) * SYMMETRIES;
+            for (int t=0; t<SYMMETRIES; t++) {
+                symmetricKeys[t] ^= SYMMETRIC_ZOBRIST[from + t] ^ SYMMETRIC_ZOBRIST[to + t];
             }
         }
-        return count;
+        counts[old]--;
+        counts[v]++;
+        word[0] &= ~bit;
+        word[1] &= ~bit;
+        word[2] &= ~bit;
+        word[v] |= bit;
     }
 
     /**
@@ -176,51 +469,232 @@ public class State {
     public State afterMove(Move move) {
         assert moveIsValid(move) : "afterMove called with an invalid move " + move;
         State newState = new State(this);
-        boolean copy = true;
-        if (Math.abs((move.tox - move.fromx)) > 1) copy = false;
-        if (Math.abs((move.toy - move.fromy)) > 1) copy = false;
-        if (!copy) newState.board[move.fromx][move.fromy] = 0;
-        newState.setBoard(move.tox,move.toy, whoseTurn());
-        for (int dx=-1; dx<=1; dx++) {
-            for (int dy=-1; dy<=1; dy++) {
-                if (State.inBounds(move.tox + dx, move.toy + dy)) {
-                    if (newState.pieceAt(move.tox+dx,move.toy+dy) != 0) {
-                       newState.setBoard(move.tox+dx,move.toy+dy,whoseTurn());
-                    }
-                }
+        newState.play(square(move.fromx,move.fromy), square(move.tox,move.toy), isJump(move.packed()));
+        return newState;
+    }
+
+    /**
+     * A record of what a move changed, so that it can be taken back.
+     * Filled in by make() and used by unmake(). Searches should keep one per level and reuse it.
+     */
+    public static class Undo {
+        int from, to;
+        boolean jump;
+        long flippedLow, flippedHigh;
+        long zobrist;
+        long[] symmetricKeys;
+    }
+
+    /**
+     * Applies a move to this board in place, rather than making a new State like afterMove().
+     * @param move The move to apply. Must be a valid move.
+     * @return A new Undo record to pass to unmake() to take the move back.
+     */
+    public Undo make(Move move) {
+        return make(move, new Undo());
+    }
+
+    /**
+     * Applies a move to this board in place, filling in an existing undo record. This does not allocate anything.
+     * @param move The move to apply. Must be a valid move.
+     * @param undo The record to fill in.
+     * @return The same undo record, to pass to unmake() to take the move back.
+     */
+    public Undo make(Move move, Undo undo) {
+        assert moveIsValid(move) : "make called with an invalid move " + move;
+        return make(move.packed(), undo);
+    }
+
+    /**
+     * Applies a packed move to this board in place, filling in an existing undo record. This does not allocate anything.
+     * @param move The move to apply, packed with Move.pack(). Must be a valid move.
+     * @param undo The record to fill in.
+     * @return The same undo record, to pass to unmake() to take the move back.
+     */
+    public Undo make(int move, Undo undo) {
+        undo.from = Move.fromSquare(move);
+        undo.to = Move.toSquare(move);
+        undo.jump = isJump(move);
+        undo.flippedLow = NEAR_LOW[undo.to] & low[whoseNotTurn()];
+        undo.flippedHigh = NEAR_HIGH[undo.to] & high[whoseNotTurn()];
+        undo.zobrist = zobrist;
+        if (symmetricKeys != null) {
+            if (undo.symmetricKeys == null) undo.symmetricKeys = new long[SYMMETRIES];
+            System.arraycopy(symmetricKeys, 0, undo.symmetricKeys, 0, SYMMETRIES);
+        }
+        play(undo.from, undo.to, undo.jump);
+        return undo;
+    }
+
+    /**
+     * Takes back the last move applied with make(). Moves must be taken back in the reverse order they were made.
+     * @param undo The record filled in when the move was made.
+     */
+    public void unmake(Undo undo) {
+        int us = whoseNotTurn();
+        int them = whoseTurn();
+        low[us] &= ~undo.flippedLow;
+        low[them] |= undo.flippedLow;
+        high[us] &= ~undo.flippedHigh;
+        high[them] |= undo.flippedHigh;
+        int flipped = Long.bitCount(undo.flippedLow) + Long.bitCount(undo.flippedHigh);
+        counts[us] -= flipped;
+        counts[them] += flipped;
+        place(undo.to, 0);
+        if (undo.jump) place(undo.from, us);
+        whoseTurn = us;
+        zobrist = undo.zobrist;
+        if (symmetricKeys != null) System.arraycopy(undo.symmetricKeys, 0, symmetricKeys, 0, SYMMETRIES);
+        dirtyBoard = true;
+    }
+
+    /**
+     * Checks if a move is a jump (distance 2, the piece leaves its square) rather than a clone (distance 1).
+     * @param move The move to check.
+     * @return True if the move is a jump.
+     */
+    public static boolean isJump(Move move) {
+        return isJump(move.packed());
+    }
+
+    /**
+     * Checks if a packed move is a jump rather than a clone.
+     * @param move The move to check, packed with Move.pack().
+     * @return True if the move is a jump.
+     */
+    public static boolean isJump(int move) {
+        int to = Move.toSquare(move);
+        long bit = 1L << to;
+        return ((((to < 64) ? NEAR_LOW : NEAR_HIGH)[Move.fromSquare(move)]) & bit) == 0;
+    }
+
+    /**
+     * Does the work of a move on this board: moves or copies the piece, infects its neighbours and changes turn.
+     * @param from The square moved from.
+     * @param to The square moved to.
+     * @param jump True if the move is a jump, so the source square is vacated.
+     */
+    void play(int from, int to, boolean jump) {
+        int us = whoseTurn();
+        int them = whoseNotTurn();
+        // A jump vacates the square it came from, a clone leaves it in place.
+        if (jump) place(from, 0);
+        place(to, us);
+        // Every enemy piece next to the target square is infected.
+        long flippedLow = NEAR_LOW[to] & low[them];
+        long flippedHigh = NEAR_HIGH[to] & high[them];
+        low[them] &= ~flippedLow;
+        low[us] |= flippedLow;
+        high[them] &= ~flippedHigh;
+        high[us] |= flippedHigh;
+        int flipped = Long.bitCount(flippedLow) + Long.bitCount(flippedHigh);
+        counts[them] -= flipped;
+        counts[us] += flipped;
+        for (; flippedLow != 0; flippedLow &= flippedLow - 1) {
+            flipKeys(Long.numberOfTrailingZeros(flippedLow));
+        }
+        for (; flippedHigh != 0; flippedHigh &= flippedHigh - 1) {
+            flipKeys(64 + Long.numberOfTrailingZeros(flippedHigh));
+        }
+        setTurn(them);
+    }
+
+    /**
+     * Updates the Zobrist keys for a piece changing sides.
+     * @param square The square of the piece.
+     */
+    void flipKeys(int square) {
+        zobrist ^= ZOBRIST[1][square] ^ ZOBRIST[2][square];
+        if (symmetricKeys != null) {
+            int first = (SQUARES + square) * SYMMETRIES;
+            int second = (2 * SQUARES + square) * SYMMETRIES;
+            for (int t=0; t<SYMMETRIES; t++) {
+                symmetricKeys[t] ^= SYMMETRIC_ZOBRIST[first + t] ^ SYMMETRIC_ZOBRIST[second + t];
             }
         }
-        if (whoseTurn == 1) newState.setTurn(2); else newState.setTurn(1);
-        return newState;
     }
 
     /**
      * Gets a list of all valid moves from this state.
-     * This is cached for efficiency.
+     * This is cached for efficiency. Clones that lead to the same position are only listed once, from the piece with
+     * the lowest square number; moveIsValid() still accepts a clone from any neighbouring piece.
      * @return ArrayList of Move objects representing all valid moves.
      */
     public ArrayList<Move> validMoves() {
         if (dirtyBoard) {
-            validMoves = new ArrayList<>();
-            for (int x=0; x<XSIZE; x++) {
-                for (int y=0; y<YSIZE; y++) {
-                    if (pieceAt(x,y) == whoseTurn()) {
-                        for (int dx=-2; dx<=2; dx++) {
-                            for (int dy=-2; dy<=2; dy++) {
-                                if (State.inBounds(x + dx, y + dy)) {
-                                    if (pieceAt(x+dx,y+dy) == 0) {
-                                        validMoves.add(new Move(x,y,x+dx,y+dy));
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+            MoveList moves = new MoveList();
+            generateMoves(moves);
+            validMoves = new ArrayList<>(moves.size());
+            for (int i=0; i<moves.size(); i++) {
+                validMoves.add(Move.unpack(moves.get(i)));
             }
             dirtyBoard = false;
         }
         return validMoves;
     }
 
+    /**
+     * Fills a MoveList with all valid moves from this state, in the same order as validMoves().
+     * The moves are packed ints rather than Move objects, and unlike validMoves() this is not cached, so keep one
+     * MoveList per search ply and refill it - that allocates nothing.
+     * @param moves The list to fill. Anything already in it is discarded.
+     */
+    public void generateMoves(MoveList moves) {
+        moves.clear();
+        int us = whoseTurn();
+        // Every clone to the same square leads to the same position, since the piece cloned from stays where it is and
+        // only the square moved to decides what is infected. So only the first piece to reach each empty square clones
+        // to it; jumps all lead to different positions and are all kept.
+        long claimedLow = 0;
+        long claimedHigh = 0;
+        for (int word=0; word<2; word++) {
+            for (long bits = (word == 0) ? low[us] : high[us]; bits != 0; bits &= bits - 1) {
+                int from = word * 64 + Long.numberOfTrailingZeros(bits);
+                long targetsLow = (FAR_LOW[from] | (NEAR_LOW[from] & ~claimedLow)) & low[0];
+                long targetsHigh = (FAR_HIGH[from] | (NEAR_HIGH[from] & ~claimedHigh)) & high[0];
+                claimedLow |= NEAR_LOW[from];
+                claimedHigh |= NEAR_HIGH[from];
+                addMovesFrom(from, targetsLow, targetsHigh, moves);
+            }
+        }
+    }
+
+    /**
+     * Adds moves from one square to a move list, in square order.
+     * @param from The square to move from.
+     * @param targetsLow The squares to move to in the low word.
+     * @param targetsHigh The squares to move to in the high word.
+     * @param moves The list to add to.
+     */
+    void addMovesFrom(int from, long targetsLow, long targetsHigh, MoveList moves) {
+        for (; targetsLow != 0; targetsLow &= targetsLow - 1) {
+            moves.add(Move.pack(from, Long.numberOfTrailingZeros(targetsLow)));
+        }
+        for (; targetsHigh != 0; targetsHigh &= targetsHigh - 1) {
+            moves.add(Move.pack(from, 64 + Long.numberOfTrailingZeros(targetsHigh)));
+        }
+    }
+
+    /**
+     * Checks if the player to move has any valid move, without building a list of them.
+     * @return True if there is at least one valid move.
+     */
+    public boolean hasValidMoves() {
+        int us = whoseTurn();
+        for (long bits = low[us]; bits != 0; bits &= bits - 1) {
+            int from = Long.numberOfTrailingZeros(bits);
+            if ((((NEAR_LOW[from] | FAR_LOW[from]) & low[0]) | ((NEAR_HIGH[from] | FAR_HIGH[from]) & high[0])) != 0) {
+                return true;
+            }
+        }
+        for (long bits = high[us]; bits != 0; bits &= bits - 1) {
+            int from = 64 + Long.numberOfTrailingZeros(bits);
+            if ((((NEAR_LOW[from] | FAR_LOW[from]) & low[0]) | ((NEAR_HIGH[from] | FAR_HIGH[from]) & high[0])) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 
 }
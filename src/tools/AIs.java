@@ -0,0 +1,23 @@
+package tools;
+
+import ai.AI;
+
+/**
+ * Creates AIs by name, for the tools that take AI names on the command line.
+ */
+final class AIs {
+
+    private AIs() {
+    }
+
+    /**
+     * Creates an AI from the name of its class in the ai package.
+     * @param name The name of the class, such as "Advanced".
+     * @param type What the AI has to be, such as AI.class, or MinMaxingAI.class for a tool that sets its search up.
+     * @return The new AI.
+     * @throws ClassCastException If the class is not a type.
+     */
+    static <T extends AI> T create(String name, Class<T> type) throws ReflectiveOperationException {
+        return Class.forName("ai." + name).asSubclass(type).getDeclaredConstructor().newInstance();
+    }
+}
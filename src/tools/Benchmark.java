@@ -0,0 +1,288 @@
+package tools;
+
+import ai.MinMaxingAI;
+import model.Move;
+import model.MoveList;
+import model.State;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the hot paths of the board and the search over a fixed corpus of positions, and measures how much memory each
+ * allocates, so that performance changes can be judged on numbers.
+ *
+ * Usage: java tools.Benchmark [-filter text] [-time ms] [-depth d] [-split threads]
+ * Only benchmarks whose names contain the filter text are run. Each benchmark is warmed up, then timed over five
+ * rounds of at least the given time; the mean time per operation is printed with its standard deviation across
+ * rounds, and the bytes allocated per operation.
+ *
+ * The splitSpeedup benchmarks search each position of a phase to the given depth on one thread and in split mode
+ * with the given number of threads (by default one per processor), and print for each level of iterative deepening
+ * the time one thread took divided by the time split mode took.
+ *
+ * The corpus has three phases - openings, middlegames and nearly full boards - made by random moves from the
+ * four-corner start with a fixed seed, so every run measures the same positions.
+ */
+public class Benchmark {
+
+    static final int POSITIONS = 16;   // Positions in each phase of the corpus
+    static final int ROUNDS = 5;
+    static final String[] PHASES = { "opening", "middlegame", "endgame" };
+    static final String[] HEURISTIC_AIS = { "Beginner", "Intermediate", "Advanced", "Aggressive", "Defensive" };
+
+    /**
+     * One operation to time, on one position.
+     */
+    interface Operation {
+        /**
+         * Performs the operation.
+         * @param board The position.
+         * @return Anything depending on the result, so the work can't be optimised away.
+         */
+        long run(State board);
+    }
+
+    String filter = "";
+    long roundMillis = 500;
+    int depth = 4;
+    int splitThreads = Runtime.getRuntime().availableProcessors();
+
+    // Everything returned by operations is added here, and printed at the end, so the work has to be done.
+    long sink;
+    // The time the operations of the last runFor() took, not counting their setup.
+    long timedNanos;
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark();
+        for (int i=0; i<args.length; i++) {
+            switch (args[i]) {
+                case "-filter": benchmark.filter = args[++i]; break;
+                case "-time": benchmark.roundMillis = Long.parseLong(args[++i]); break;
+                case "-depth": benchmark.depth = Integer.parseInt(args[++i]); break;
+                case "-split": benchmark.splitThreads = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Usage: java tools.Benchmark [-filter text] [-time ms] [-depth d] "
+                            + "[-split threads]");
+                    System.exit(1);
+            }
+        }
+        benchmark.run(System.out);
+    }
+
+    /**
+     * Runs every benchmark that matches the filter.
+     * @param out Where to print the results.
+     */
+    void run(PrintStream out) throws Exception {
+        State[][] corpus = corpus();
+        out.println(String.format("%-44s %14s %12s %14s", "Benchmark", "ns/op", "+/-", "bytes/op"));
+        for (int phase=0; phase<PHASES.length; phase++) {
+            State[] positions = corpus[phase];
+            String suffix = "/" + PHASES[phase];
+
+            // validMoves() keeps the list it builds, so each call gets a fresh copy of the position.
+            bench(out, "copy" + suffix, positions, board -> new State(board).countPieces(0));
+            bench(out, "validMoves" + suffix, positions, board -> new State(board).validMoves().size());
+            MoveList moves = new MoveList();
+            bench(out, "generateMoves" + suffix, positions, board -> {
+                board.generateMoves(moves);
+                return moves.size();
+            });
+            bench(out, "afterMove" + suffix, positions, board -> {
+                List<Move> valid = board.validMoves();
+                return board.afterMove(valid.get(valid.size() / 2)).countPieces(0);
+            });
+            State.Undo undo = new State.Undo();
+            bench(out, "makeUnmake" + suffix, positions, board -> {
+                board.generateMoves(moves);
+                State.Undo made = board.make(moves.get(moves.size() / 2), undo);
+                long pieces = board.countPieces(0);
+                board.unmake(made);
+                return pieces;
+            });
+            bench(out, "countPieces" + suffix, positions, board -> board.countPieces(1) + board.countPieces(2));
+
+            MinMaxingAI hasher = createAI("Advanced");
+            bench(out, "zobristHash" + suffix, positions, hasher::zobristHash);
+            for (String name : HEURISTIC_AIS) {
+                MinMaxingAI ai = createAI(name);
+                bench(out, "heuristic." + name + suffix, positions,
+                        board -> ai.heuristic(board, board.whoseTurn(), board.whoseNotTurn()));
+            }
+            for (String name : HEURISTIC_AIS) {
+                MinMaxingAI ai = createAI(name);
+                ai.setDepth(depth);
+                // Each search starts from an empty cache, as the first move of a game would. Emptying the cache is
+                // setup, so it isn't timed.
+                bench(out, "nextMove." + name + ".depth" + depth + suffix, positions, board -> {
+                    ai.clearCache();
+                    return 0;
+                }, board -> ai.nextMove(board).packed());
+            }
+            splitSpeedup(out, "splitSpeedup.Advanced", suffix, positions);
+        }
+        out.println("(sink " + sink + ")");
+    }
+
+    /**
+     * Times one operation over a set of positions, if its name matches the filter, and prints the result.
+     * @param out Where to print the result.
+     * @param name The benchmark's name.
+     * @param positions The positions to run the operation on, in turn.
+     * @param operation The operation.
+     */
+    void bench(PrintStream out, String name, State[] positions, Operation operation) {
+        bench(out, name, positions, null, operation);
+    }
+
+    /**
+     * Times one operation over a set of positions, if its name matches the filter, and prints the result. Before each
+     * operation a setup step is run, which isn't timed, though what it allocates is counted.
+     * @param out Where to print the result.
+     * @param name The benchmark's name.
+     * @param positions The positions to run the operation on, in turn.
+     * @param setup Run on each position before the operation, or null for nothing.
+     * @param operation The operation.
+     */
+    void bench(PrintStream out, String name, State[] positions, Operation setup, Operation operation) {
+        if (!name.contains(filter)) return;
+        // Warm up, so that the code being timed has been compiled.
+        runFor(positions, setup, operation, roundMillis);
+        double[] nanosPerOp = new double[ROUNDS];
+        long bytes = 0, operations = 0;
+        for (int round=0; round<ROUNDS; round++) {
+            long startBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long count = runFor(positions, setup, operation, roundMillis);
+            nanosPerOp[round] = (double) timedNanos / count;
+            bytes += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+            operations += count;
+        }
+        double mean = 0;
+        for (double nanos : nanosPerOp) mean += nanos / ROUNDS;
+        double variance = 0;
+        for (double nanos : nanosPerOp) variance += (nanos - mean) * (nanos - mean) / (ROUNDS - 1);
+        out.println(String.format("%-44s %14.1f %12.1f %14.1f", name, mean, Math.sqrt(variance),
+                (double) bytes / operations));
+    }
+
+    /**
+     * Measures how much faster split mode searches each level than one thread, if its name matches the filter, and
+     * prints the speedup of each level: the time one thread took over all the positions, divided by the time split
+     * mode took. Both search every position once untimed first, so that the code being timed has been compiled.
+     * @param out Where to print the result.
+     * @param name The benchmark's name, without the phase.
+     * @param suffix The phase.
+     * @param positions The positions to search.
+     */
+    void splitSpeedup(PrintStream out, String name, String suffix, State[] positions)
+            throws ReflectiveOperationException {
+        if (!(name + suffix).contains(filter)) return;
+        MinMaxingAI serial = createAI("Advanced");
+        serial.setDepth(depth);
+        MinMaxingAI split = createAI("Advanced");
+        split.setDepth(depth);
+        split.setSplitThreads(splitThreads);
+        iterationNanos(serial, positions);
+        iterationNanos(split, positions);
+        long[] serialNanos = iterationNanos(serial, positions);
+        long[] splitNanos = iterationNanos(split, positions);
+        split.setSplitThreads(0);
+        for (int level=1; level<=depth; level++) {
+            if ((serialNanos[level] == 0) || (splitNanos[level] == 0)) continue;
+            out.println(String.format("%-44s %13.2fx", name + ".level" + level + suffix,
+                    (double) serialNanos[level] / splitNanos[level]));
+        }
+    }
+
+    /**
+     * Searches each position with an AI, and adds up the time each level of iterative deepening took.
+     * @param ai The AI. Its cache is emptied before each search, outside the times taken, so every search starts
+     *           from nothing.
+     * @param positions The positions to search.
+     * @return The total time taken by each level, indexed by level.
+     */
+    long[] iterationNanos(MinMaxingAI ai, State[] positions) {
+        long[] total = new long[depth + 1];
+        for (State board : positions) {
+            ai.clearCache();
+            sink += ai.nextMove(board).packed();
+            long[] nanos = ai.lastMetrics().getIterationNanos();
+            for (int level=1; level<Math.min(nanos.length, total.length); level++) total[level] += nanos[level];
+        }
+        return total;
+    }
+
+    /**
+     * Runs an operation over the positions again and again for at least the given time, not counting the setup, and
+     * sets timedNanos to the time the operations took. With no setup the whole loop is timed at once; otherwise each
+     * operation is timed on its own, which only suits operations much slower than reading the clock.
+     * @param setup Run on each position before the operation, or null for nothing.
+     * @return The number of operations run.
+     */
+    long runFor(State[] positions, Operation setup, Operation operation, long millis) {
+        long count = 0, nanos = 0;
+        long start = System.nanoTime();
+        do {
+            for (State board : positions) {
+                if (setup == null) {
+                    sink += operation.run(board);
+                } else {
+                    sink += setup.run(board);
+                    long opStart = System.nanoTime();
+                    sink += operation.run(board);
+                    nanos += System.nanoTime() - opStart;
+                }
+            }
+            count += positions.length;
+        } while (((setup == null) ? System.nanoTime() - start : nanos) < millis * 1000000);
+        timedNanos = (setup == null) ? System.nanoTime() - start : nanos;
+        return count;
+    }
+
+    /**
+     * Makes the fixed corpus of positions.
+     * @return For each phase, its positions.
+     */
+    static State[][] corpus() {
+        Random random = new Random(20150101);
+        State[][] corpus = new State[PHASES.length][POSITIONS];
+        // Pieces on the board (out of 100) that make a position count as each phase.
+        int[] minPieces = { 0, 35, 85 };
+        int[] minPlies = { 2, 0, 0 };
+        for (int phase=0; phase<PHASES.length; phase++) {
+            int found = 0;
+            while (found < POSITIONS) {
+                State board = State.start();
+                int plies = 0;
+                // Play random moves until the position is far enough into the game.
+                while (board.hasValidMoves()
+                        && ((plies < minPlies[phase]) || ((100 - board.countPieces(0)) < minPieces[phase]))) {
+                    List<Move> moves = board.validMoves();
+                    board = board.afterMove(moves.get(random.nextInt(moves.size())));
+                    plies++;
+                }
+                // Openings stop after a few moves; games that ended on the way are thrown away.
+                if (phase == 0) {
+                    for (int i=random.nextInt(4); (i>0) && board.hasValidMoves(); i--) {
+                        List<Move> moves = board.validMoves();
+                        board = board.afterMove(moves.get(random.nextInt(moves.size())));
+                    }
+                }
+                if (board.hasValidMoves()) corpus[phase][found++] = board;
+            }
+        }
+        return corpus;
+    }
+
+    static MinMaxingAI createAI(String name) throws ReflectiveOperationException {
+        MinMaxingAI ai = AIs.create(name, MinMaxingAI.class);
+        // The opening positions would be played from the book instead of searched.
+        ai.setOpeningBook(null);
+        return ai;
+    }
+}
@@ -0,0 +1,187 @@
+package tools;
+
+import ai.MinMaxingAI;
+import ai.OpeningBook;
+import model.Move;
+import model.MoveList;
+import model.State;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates an opening book for an AI, by searching the positions near the four-corner start much deeper than the AI
+ * could during a game. The AI finds the book when it is created, as described in OpeningBook.forAI().
+ *
+ * Usage: java tools.BookGenerator [-ai name] [-plies n] [-depth d] [-threads n] [-out file]
+ *
+ * -ai       the AI whose heuristic is used, and whose book is written; Advanced by default.
+ * -plies    how many moves into the game the book reaches; 4 by default.
+ * -depth    the depth each position is searched to; 7 by default.
+ * -threads  how many positions are searched at once.
+ * -out      the file to write, by default books/name.book.
+ *
+ * The book is for both players. For each player it holds every position that player can face within the given number
+ * of moves, when it plays the book's moves and the opponent may play anything.
+ */
+public class BookGenerator {
+
+    String ai = "Advanced";
+    int plies = 4;
+    int depth = 7;
+    int threads = Runtime.getRuntime().availableProcessors();
+    Path out;
+
+    // Book entries found so far, by Zobrist key. Sorted, as the book must be.
+    Map<Long, long[]> book = new TreeMap<>();
+
+    public static void main(String[] args) throws Exception {
+        BookGenerator generator = new BookGenerator();
+        for (int i=0; i<args.length; i++) {
+            switch (args[i]) {
+                case "-ai": generator.ai = args[++i]; break;
+                case "-plies": generator.plies = Integer.parseInt(args[++i]); break;
+                case "-depth": generator.depth = Integer.parseInt(args[++i]); break;
+                case "-threads": generator.threads = Integer.parseInt(args[++i]); break;
+                case "-out": generator.out = Paths.get(args[++i]); break;
+                default:
+                    System.err.println("Usage: java tools.BookGenerator [-ai name] [-plies n] [-depth d] "
+                            + "[-threads n] [-out file]");
+                    System.exit(1);
+            }
+        }
+        if (generator.out == null) generator.out = Paths.get("books", generator.ai + ".book");
+        // Check the name before starting anything.
+        generator.createAI();
+
+        long start = System.nanoTime();
+        generator.generate();
+        generator.write();
+        System.out.println("Wrote " + generator.book.size() + " positions to " + generator.out + " in "
+                + ((System.nanoTime() - start) / 1000000) + "ms");
+    }
+
+    /**
+     * Creates an AI for searching book positions, without a book of its own.
+     * @return The new AI.
+     */
+    MinMaxingAI createAI() throws ReflectiveOperationException {
+        MinMaxingAI searcher = AIs.create(ai, MinMaxingAI.class);
+        searcher.setOpeningBook(null);
+        searcher.setDepth(depth);
+        return searcher;
+    }
+
+    /**
+     * Searches every book position, a ply at a time. The positions of each ply are searched in parallel, and the moves
+     * found decide which positions are in the next ply.
+     */
+    void generate() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ThreadLocal<MinMaxingAI> searchers = ThreadLocal.withInitial(() -> {
+            try {
+                return createAI();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // Each position is followed twice over, once for the book of each player; bookPlayers says for which.
+        List<State> positions = new ArrayList<>();
+        List<Integer> bookPlayers = new ArrayList<>();
+        positions.add(State.start());
+        bookPlayers.add(1);
+        positions.add(State.start());
+        bookPlayers.add(2);
+
+        for (int ply=0; ply<plies; ply++) {
+            // Search the positions where the book's player is to move, and haven't been searched already.
+            List<State> searched = new ArrayList<>();
+            List<Future<long[]>> results = new ArrayList<>();
+            Set<Long> queued = new HashSet<>();
+            for (int i=0; i<positions.size(); i++) {
+                State board = positions.get(i);
+                long key = board.zobristKey();
+                if ((board.whoseTurn() != bookPlayers.get(i)) || book.containsKey(key) || !queued.add(key)) continue;
+                searched.add(board);
+                results.add(pool.submit(() -> search(searchers.get(), board)));
+            }
+            for (int i=0; i<results.size(); i++) {
+                book.put(searched.get(i).zobristKey(), results.get(i).get());
+            }
+            System.out.println("Ply " + ply + ": searched " + searched.size() + " positions, book has "
+                    + book.size());
+
+            // The book's player plays the book move; the opponent may play anything.
+            List<State> nextPositions = new ArrayList<>();
+            List<Integer> nextBookPlayers = new ArrayList<>();
+            Set<Long> seen = new HashSet<>();
+            MoveList moves = new MoveList();
+            for (int i=0; i<positions.size(); i++) {
+                State board = positions.get(i);
+                int bookPlayer = bookPlayers.get(i);
+                board.generateMoves(moves);
+                for (int m=0; m<moves.size(); m++) {
+                    int move = moves.get(m);
+                    if ((board.whoseTurn() == bookPlayer) && (move != (int) book.get(board.zobristKey())[0])) continue;
+                    State after = board.afterMove(Move.unpack(move));
+                    if (!after.hasValidMoves()) continue;
+                    // The same position may be reached by different moves; follow it once for each player.
+                    if (!seen.add(after.zobristKey() * 3 + bookPlayer)) continue;
+                    nextPositions.add(after);
+                    nextBookPlayers.add(bookPlayer);
+                }
+            }
+            positions = nextPositions;
+            bookPlayers = nextBookPlayers;
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Searches one position.
+     * @param searcher The AI to search with.
+     * @param board The position.
+     * @return The book entry: the packed move, its rating and the depth searched.
+     */
+    long[] search(MinMaxingAI searcher, State board) {
+        searcher.clearCache();
+        Move move = searcher.nextMove(board);
+        int rating = searcher.lastMetrics().getRating();
+        return new long[] { move.packed(), rating, searcher.lastMetrics().getDepth() };
+    }
+
+    /**
+     * Writes the book, in the format OpeningBook reads.
+     */
+    void write() throws IOException {
+        if (out.getParent() != null) Files.createDirectories(out.getParent());
+        try (OutputStream file = Files.newOutputStream(out);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(file))) {
+            data.writeInt(OpeningBook.MAGIC);
+            data.writeInt(OpeningBook.VERSION);
+            data.writeInt(book.size());
+            data.writeInt(depth);
+            for (Map.Entry<Long, long[]> entry : book.entrySet()) {
+                data.writeLong(entry.getKey());
+                data.writeInt((int) entry.getValue()[0]);
+                data.writeShort((int) entry.getValue()[1]);
+                data.writeShort((int) entry.getValue()[2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package tools;
+
+import model.Move;
+import model.MoveList;
+import model.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Counts the positions reachable in a given number of moves ("perft"), for checking that the move generator and
+ * make/unmake are right, and for timing them.
+ *
+ * Usage: java tools.Perft [-depth n] [-divide] [-slow] [-threads n] [-board squares -turn player] [-check]
+ *
+ * -divide   prints the count below each move from the starting position.
+ * -slow     counts with validMoves() and afterMove() instead of generateMoves() and make/unmake, so the two can be
+ *           compared; it also turns off bulk counting.
+ * -threads  shares the moves from the starting position out between threads.
+ * -board    gives the starting position as 100 characters, '.', '1' or '2' for each square, row by row as
+ *           State.toString() prints them, with -turn saying who is to move. The default is the four-corner start
+ *           used by the game.
+ * -check    compares the count at every depth up to -depth with REFERENCE, for the four-corner start.
+ *
+ * A position where the player to move has no moves ends the game, and contributes nothing to the counts of greater
+ * depths. Clone moves from different pieces onto the same square are one move, as generateMoves() makes them.
+ */
+public class Perft {
+
+    // Positions reachable from the four-corner start in 1, 2, ... moves.
+    static final long[] REFERENCE = { 1, 16, 256, 6496, 164836, 5399864, 176298080 };
+
+    int depth = 4;
+    boolean divide;
+    boolean slow;
+    int threads = 1;
+    boolean check;
+    State start;
+
+    public static void main(String[] args) throws Exception {
+        Perft perft = new Perft();
+        perft.start = State.start();
+        String squares = null;
+        int turn = 1;
+        for (int i=0; i<args.length; i++) {
+            switch (args[i]) {
+                case "-depth": perft.depth = Integer.parseInt(args[++i]); break;
+                case "-divide": perft.divide = true; break;
+                case "-slow": perft.slow = true; break;
+                case "-threads": perft.threads = Integer.parseInt(args[++i]); break;
+                case "-board": squares = args[++i]; break;
+                case "-turn": turn = Integer.parseInt(args[++i]); break;
+                case "-check": perft.check = true; break;
+                default:
+                    System.err.println("Usage: java tools.Perft [-depth n] [-divide] [-slow] [-threads n] "
+                            + "[-board squares -turn player] [-check]");
+                    System.exit(1);
+            }
+        }
+        if (squares != null) perft.start = parseBoard(squares, turn);
+
+        if (perft.check) {
+            boolean passed = true;
+            for (int d=0; d<=perft.depth; d++) {
+                passed &= perft.report(d, (d < REFERENCE.length) ? REFERENCE[d] : -1);
+            }
+            System.exit(passed ? 0 : 1);
+        } else {
+            perft.report(perft.depth, -1);
+        }
+    }
+
+    /**
+     * Counts to a depth from the starting position and prints the count and speed.
+     * @param depth The depth to count to.
+     * @param expected The count there should be, or -1 if it isn't known.
+     * @return True if the count was as expected, or nothing was expected.
+     */
+    boolean report(int depth, long expected) throws Exception {
+        long start = System.nanoTime();
+        long[] counts = rootCounts(depth);
+        long nanos = System.nanoTime() - start;
+        long total = 0;
+        for (long count : counts) total += count;
+        if (depth == 0) total = 1;
+
+        if (divide && (depth > 0)) {
+            List<Move> moves = new State(this.start).validMoves();
+            for (int i=0; i<moves.size(); i++) {
+                System.out.println(moves.get(i) + ": " + counts[i]);
+            }
+        }
+        String line = "perft(" + depth + ") = " + total + " in " + (nanos / 1000000) + "ms, "
+                + (long) (total * 1e9 / Math.max(nanos, 1)) + " nodes/s";
+        boolean passed = (expected < 0) || (total == expected);
+        if (expected >= 0) line += passed ? ", ok" : ", expected " + expected;
+        System.out.println(line);
+        return passed;
+    }
+
+    /**
+     * Counts to a depth below each move from the starting position, sharing the moves out between threads.
+     * @param depth The depth to count to, counting the move from the starting position.
+     * @return The count below each move, in validMoves() order.
+     */
+    long[] rootCounts(int depth) throws Exception {
+        if (depth == 0) return new long[0];
+        List<Move> moves = new State(start).validMoves();
+        long[] counts = new long[moves.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> results = new ArrayList<>();
+        for (Move move : moves) {
+            State after = start.afterMove(move);
+            results.add(pool.submit(() -> slow ? slowCount(after, depth - 1) : new Counter().count(after, depth - 1)));
+        }
+        for (int i=0; i<counts.length; i++) {
+            counts[i] = results.get(i).get();
+        }
+        pool.shutdown();
+        return counts;
+    }
+
+    /**
+     * Counts by making and unmaking moves on one board, with a move list and undo record kept for each ply.
+     * One Counter is used by one thread.
+     */
+    static class Counter {
+
+        MoveList[] moveLists;
+        State.Undo[] undos;
+
+        long count(State board, int depth) {
+            moveLists = new MoveList[depth + 1];
+            undos = new State.Undo[depth + 1];
+            for (int i=0; i<=depth; i++) {
+                moveLists[i] = new MoveList();
+                undos[i] = new State.Undo();
+            }
+            return count(new State(board), depth, 0);
+        }
+
+        long count(State board, int depth, int ply) {
+            if (depth == 0) return 1;
+            MoveList moves = moveLists[ply];
+            board.generateMoves(moves);
+            // Bulk counting: the positions one move away are counted without making the moves.
+            if (depth == 1) return moves.size();
+            long total = 0;
+            for (int i=0; i<moves.size(); i++) {
+                State.Undo undo = board.make(moves.get(i), undos[ply]);
+                total += count(board, depth - 1, ply + 1);
+                board.unmake(undo);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Counts with validMoves() and afterMove(), one position at a time, as the game itself does.
+     */
+    static long slowCount(State board, int depth) {
+        if (depth == 0) return 1;
+        long total = 0;
+        for (Move move : board.validMoves()) {
+            total += slowCount(board.afterMove(move), depth - 1);
+        }
+        return total;
+    }
+
+    /**
+     * Makes a position from 100 characters, '.', '1' or '2' for each square, row by row.
+     * @param squares The squares.
+     * @param turn The player to move.
+     * @return The position.
+     */
+    static State parseBoard(String squares, int turn) {
+        if (squares.length() != 100) {
+            throw new IllegalArgumentException("The board needs 100 squares, not " + squares.length());
+        }
+        State board = new State();
+        for (int y=0; y<10; y++) {
+            for (int x=0; x<10; x++) {
+                char square = squares.charAt(y * 10 + x);
+                if (square == '1') board.setBoard(x, y, 1);
+                else if (square == '2') board.setBoard(x, y, 2);
+                else if (square != '.') throw new IllegalArgumentException("Unknown square '" + square + "'");
+            }
+        }
+        board.setTurn(turn);
+        return board;
+    }
+}
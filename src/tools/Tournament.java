@@ -0,0 +1,294 @@
+package tools;
+
+import ai.AI;
+import ai.MinMaxingAI;
+import ai.SearchStats;
+import model.Move;
+import model.State;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays a round-robin tournament between AIs without the user interface, several games at a time, and reports
+ * win/draw/loss tables, Elo estimates and search speeds.
+ *
+ * Usage: java tools.Tournament [-games n] [-random plies] [-depth d] [-time ms] [-threads n] [-seed s] [-symmetric]
+ *        AI AI...
+ * where each AI is the name of a class in the ai package, such as Advanced. -symmetric turns on
+ * MinMaxingAI.setSymmetricCache(). An AI's name may be followed by options for its search, each after a colon:
+ * :lmr turns on MinMaxingAI.setLateMoveReductions(), :futility MinMaxingAI.setFutilityPruning() and :quiescence
+ * MinMaxingAI.setQuiescence(), so that Aggressive:lmr:futility plays against Aggressive to measure what they are
+ * worth. :futility only prunes for Aggressive and Defensive, whose heuristics give a margin; for Advanced,
+ * Intermediate and Beginner it is accepted but changes nothing, and it does nothing together with :quiescence.
+ *
+ * Every pair of AIs plays the given number of games. Each opening - a number of random moves from the usual
+ * four-corner start - is played twice, with the AIs swapping sides, so neither gets a better start.
+ */
+public class Tournament {
+
+    // Games that go on this long without either side running out of moves are decided on pieces.
+    static final int MAX_PLIES = 2000;
+
+    String[] names;                // AI class names
+    int gamesPerPairing = 10;
+    int randomPlies = 4;           // Random moves played before the AIs take over
+    int depth;                     // Search depth for MinMaxingAIs, or 0 for each AI's own
+    long timeMillis;               // Time per move for MinMaxingAIs, or 0 for none
+    int threads = Runtime.getRuntime().availableProcessors();
+    long seed = 1;
+    boolean symmetric;             // Symmetric positions share cache entries in MinMaxingAIs
+    Map<String, SearchStats> stats = new HashMap<>(); // Search statistics of each AI, published over JMX
+
+    // Results, indexed by AI: wins[i][j] is how many games AI i won against AI j.
+    int[][] wins;
+    int[][] draws;
+    long[] states;                 // States examined by each AI
+    long[] searchNanos;            // Time each AI spent deciding moves
+
+    // Results of one game.
+    static class Game {
+        int red, blue;             // AIs playing player 1 and player 2
+        int redPieces, bluePieces;
+        int plies;
+        long[] states = new long[2];
+        long[] nanos = new long[2];
+    }
+
+    public static void main(String[] args) throws Exception {
+        Tournament tournament = new Tournament();
+        List<String> names = new ArrayList<>();
+        for (int i=0; i<args.length; i++) {
+            switch (args[i]) {
+                case "-games": tournament.gamesPerPairing = Integer.parseInt(args[++i]); break;
+                case "-random": tournament.randomPlies = Integer.parseInt(args[++i]); break;
+                case "-depth": tournament.depth = Integer.parseInt(args[++i]); break;
+                case "-time": tournament.timeMillis = Long.parseLong(args[++i]); break;
+                case "-threads": tournament.threads = Integer.parseInt(args[++i]); break;
+                case "-seed": tournament.seed = Long.parseLong(args[++i]); break;
+                case "-symmetric": tournament.symmetric = true; break;
+                default: names.add(args[i]);
+            }
+        }
+        if (names.size() < 2) {
+            System.err.println("Usage: java tools.Tournament [-games n] [-random plies] [-depth d] [-time ms] "
+                    + "[-threads n] [-seed s] [-symmetric] AI AI...");
+            System.exit(1);
+        }
+        tournament.names = names.toArray(new String[0]);
+        // Check the names before starting anything.
+        for (String name : tournament.names) tournament.createAI(name);
+
+        tournament.run(System.out);
+    }
+
+    /**
+     * Creates an AI, set up for the tournament's time or depth control.
+     * @param name The name of the AI's class in the ai package.
+     * @return The new AI.
+     */
+    AI createAI(String name) throws ReflectiveOperationException {
+        String[] options = name.split(":");
+        AI ai = AIs.create(options[0], AI.class);
+        if ((options.length > 1) && !(ai instanceof MinMaxingAI)) {
+            throw new IllegalArgumentException(options[0] + " takes no options");
+        }
+        if (ai instanceof MinMaxingAI) {
+            MinMaxingAI searcher = (MinMaxingAI) ai;
+            if (depth > 0) searcher.setDepth(depth);
+            if (timeMillis > 0) searcher.setTimeBudget(timeMillis);
+            if (symmetric) searcher.setSymmetricCache(true);
+            for (int i=1; i<options.length; i++) {
+                switch (options[i]) {
+                    case "lmr": searcher.setLateMoveReductions(true); break;
+                    case "futility": searcher.setFutilityPruning(true); break;
+                    case "quiescence": searcher.setQuiescence(MinMaxingAI.QUIESCENCE_INFECTS); break;
+                    default: throw new IllegalArgumentException("Unknown option " + options[i] + " in " + name);
+                }
+            }
+            synchronized (stats) {
+                searcher.addMetricsListener(stats.computeIfAbsent(name, SearchStats::register));
+            }
+        }
+        return ai;
+    }
+
+    /**
+     * Plays every game, spread across the tournament's threads, and prints the results.
+     * @param out Where to print the results.
+     */
+    void run(PrintStream out) throws Exception {
+        int n = names.length;
+        wins = new int[n][n];
+        draws = new int[n][n];
+        states = new long[n];
+        searchNanos = new long[n];
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Game>> games = new ArrayList<>();
+        Random random = new Random(seed);
+        for (int a=0; a<n; a++) {
+            for (int b=a+1; b<n; b++) {
+                long openingSeed = 0;
+                for (int g=0; g<gamesPerPairing; g++) {
+                    // A new opening for every other game; the game in between replays it with sides swapped.
+                    if ((g % 2) == 0) openingSeed = random.nextLong();
+                    int red = ((g % 2) == 0) ? a : b;
+                    int blue = ((g % 2) == 0) ? b : a;
+                    long gameSeed = openingSeed;
+                    games.add(pool.submit(() -> play(red, blue, gameSeed)));
+                }
+            }
+        }
+        long start = System.nanoTime();
+        int plies = 0;
+        for (Future<Game> future : games) {
+            Game game = future.get();
+            record(game);
+            plies += game.plies;
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        out.println(games.size() + " games, " + plies + " moves in " + (elapsed / 1000000) + "ms on " + threads
+                + " threads (" + String.format("%.2f", games.size() * 1e9 / elapsed) + " games/s).");
+        out.println();
+        printTable(out);
+        out.println();
+        printStandings(out);
+    }
+
+    /**
+     * Plays one game.
+     * @param red The AI playing player 1.
+     * @param blue The AI playing player 2.
+     * @param openingSeed Seed for the random opening moves.
+     * @return The result.
+     */
+    Game play(int red, int blue, long openingSeed) throws ReflectiveOperationException {
+        Game game = new Game();
+        game.red = red;
+        game.blue = blue;
+        AI[] players = { createAI(names[red]), createAI(names[blue]) };
+
+        State board = State.start();
+        Random random = new Random(openingSeed);
+        for (int i=0; (i<randomPlies) && board.hasValidMoves(); i++) {
+            List<Move> moves = board.validMoves();
+            board = board.afterMove(moves.get(random.nextInt(moves.size())));
+        }
+
+        while (board.hasValidMoves() && (game.plies < MAX_PLIES)) {
+            int side = board.whoseTurn() - 1;
+            long moveStart = System.nanoTime();
+            Move move = players[side].nextMove(board);
+            game.nanos[side] += System.nanoTime() - moveStart;
+            if (players[side] instanceof MinMaxingAI) {
+                game.states[side] += ((MinMaxingAI) players[side]).lastMetrics().getNodes();
+            }
+            assert board.moveIsValid(move) : names[side == 0 ? red : blue] + " tried to make invalid move " + move;
+            board = board.afterMove(move);
+            game.plies++;
+        }
+
+        game.redPieces = board.countPieces(1);
+        game.bluePieces = board.countPieces(2);
+        // As in the game: when the player to move is stuck, the other player claims all the empty squares.
+        if (!board.hasValidMoves()) {
+            if (board.whoseNotTurn() == 1) game.redPieces += board.countPieces(0);
+            else game.bluePieces += board.countPieces(0);
+        }
+        return game;
+    }
+
+    /**
+     * Adds the result of a game to the tables.
+     * @param game The game.
+     */
+    void record(Game game) {
+        if (game.redPieces > game.bluePieces) wins[game.red][game.blue]++;
+        else if (game.bluePieces > game.redPieces) wins[game.blue][game.red]++;
+        else {
+            draws[game.red][game.blue]++;
+            draws[game.blue][game.red]++;
+        }
+        states[game.red] += game.states[0];
+        states[game.blue] += game.states[1];
+        searchNanos[game.red] += game.nanos[0];
+        searchNanos[game.blue] += game.nanos[1];
+    }
+
+    /**
+     * Prints the win/draw/loss result of each pairing, from the point of view of the AI on each row.
+     * @param out Where to print.
+     */
+    void printTable(PrintStream out) {
+        int width = 12;
+        for (String name : names) width = Math.max(width, name.length() + 2);
+        StringBuilder line = new StringBuilder(pad("W-D-L", width));
+        for (String name : names) line.append(pad(name, width));
+        out.println(line);
+        for (int i=0; i<names.length; i++) {
+            line = new StringBuilder(pad(names[i], width));
+            for (int j=0; j<names.length; j++) {
+                line.append(pad((i == j) ? "-" : (wins[i][j] + "-" + draws[i][j] + "-" + wins[j][i]), width));
+            }
+            out.println(line);
+        }
+    }
+
+    /**
+     * Prints each AI's overall result, with an Elo rating relative to the average opponent it met, the rating's 95%
+     * confidence interval, and how fast it searched.
+     * @param out Where to print.
+     */
+    void printStandings(PrintStream out) {
+        // Names with search options can be longer than the column.
+        int width = 14;
+        for (String name : names) width = Math.max(width, name.length());
+        out.println(String.format("%-" + width + "s %6s %6s %6s %6s %7s %8s %14s %10s",
+                "AI", "Games", "Won", "Drawn", "Lost", "Score", "Elo", "95% interval", "States/s"));
+        for (int i=0; i<names.length; i++) {
+            int won = 0, drawn = 0, lost = 0;
+            for (int j=0; j<names.length; j++) {
+                won += wins[i][j];
+                drawn += draws[i][j];
+                lost += wins[j][i];
+            }
+            int games = won + drawn + lost;
+            double score = (won + drawn / 2.0) / games;
+            // Standard error of the mean score per game, from the spread of the results actually seen.
+            double variance = ((won * Math.pow(1 - score, 2)) + (drawn * Math.pow(0.5 - score, 2))
+                    + (lost * Math.pow(score, 2))) / games;
+            double error = 1.96 * Math.sqrt(variance / games);
+            String interval = elo(score - error) + " to " + elo(score + error);
+            String speed = (states[i] > 0) ? Long.toString((long) (states[i] * 1e9 / searchNanos[i])) : "-";
+            out.println(String.format("%-" + width + "s %6d %6d %6d %6d %6.1f%% %8s %14s %10s",
+                    names[i], games, won, drawn, lost, score * 100, elo(score), interval, speed));
+        }
+    }
+
+    /**
+     * Converts a score to the Elo rating difference that would be expected to produce it.
+     * @param score The fraction of points scored, from 0 to 1.
+     * @return The rating difference, as text.
+     */
+    static String elo(double score) {
+        if (score <= 0) return "-inf";
+        if (score >= 1) return "+inf";
+        return String.format("%+.0f", -400 * Math.log10(1 / score - 1));
+    }
+
+    static String pad(String text, int width) {
+        StringBuilder padded = new StringBuilder(text);
+        while (padded.length() < width) padded.append(' ');
+        return padded.toString();
+    }
+}
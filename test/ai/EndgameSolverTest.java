@@ -0,0 +1,202 @@
+package ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import model.Move;
+import model.MoveList;
+import model.State;
+import org.junit.Test;
+
+/**
+ * Tests of the endgame solver against a plain minimax over every line, on endings small enough to play out in full.
+ */
+public class EndgameSolverTest {
+
+    /**
+     * Makes random positions with only a few empty squares, by filling the board at random and emptying some squares.
+     * @param random Where the positions come from.
+     * @param count How many positions to make.
+     * @param empties How many empty squares each has.
+     * @return Positions where the player to move has a move.
+     */
+    static List<State> endings(Random random, int count, int empties) {
+        List<State> positions = new ArrayList<>();
+        while (positions.size() < count) {
+            State board = new State();
+            for (int x=0; x<State.XSIZE; x++) {
+                for (int y=0; y<State.YSIZE; y++) {
+                    board.setBoard(x, y, 1 + random.nextInt(2));
+                }
+            }
+            for (int i=0; i<empties; i++) {
+                board.setBoard(random.nextInt(State.XSIZE), random.nextInt(State.YSIZE), 0);
+            }
+            board.setTurn(1 + random.nextInt(2));
+            if (board.countPieces(0) == empties && board.hasValidMoves()) positions.add(board);
+        }
+        return positions;
+    }
+
+    /**
+     * Rates a position by trying every line, under the same rules as the solver: each line may contain a number of
+     * jumps, and a line that has used them up when only jumps are left is rated as it stands.
+     * @param board The position, played on and put back.
+     * @param jumps How many more jumps the line may contain.
+     * @return The final piece difference for the player to move.
+     */
+    static int bruteForce(State board, int jumps) {
+        int us = board.whoseTurn();
+        int them = board.whoseNotTurn();
+        MoveList moves = new MoveList();
+        board.generateMoves(moves);
+        if (moves.size() == 0) return board.countPieces(us) - board.countPieces(them) - board.countPieces(0);
+        int best = Integer.MIN_VALUE;
+        for (int i=0; i<moves.size(); i++) {
+            int move = moves.get(i);
+            boolean jump = State.isJump(move);
+            if (jump && (jumps == 0)) continue;
+            State.Undo undo = board.make(move, new State.Undo());
+            best = Math.max(best, -bruteForce(board, jump ? jumps - 1 : jumps));
+            board.unmake(undo);
+        }
+        return (best != Integer.MIN_VALUE) ? best : board.countPieces(us) - board.countPieces(them);
+    }
+
+    /**
+     * Checks whether any line of a position, tried in full, has to leave out a jump.
+     * @param board The position, played on and put back.
+     * @param jumps How many more jumps the line may contain.
+     * @return True if the jump limit cuts some line short.
+     */
+    static boolean cutShort(State board, int jumps) {
+        MoveList moves = new MoveList();
+        board.generateMoves(moves);
+        for (int i=0; i<moves.size(); i++) {
+            int move = moves.get(i);
+            boolean jump = State.isJump(move);
+            if (jump && (jumps == 0)) return true;
+            State.Undo undo = board.make(move, new State.Undo());
+            boolean cut = cutShort(board, jump ? jumps - 1 : jumps);
+            board.unmake(undo);
+            if (cut) return true;
+        }
+        return false;
+    }
+
+    /**
+     * A solve only calls itself exact when more jumps would change nothing, and always does when no line of the
+     * position needs more jumps than it allowed.
+     */
+    @Test
+    public void exactOnlyWhenNoLineIsCutShort() {
+        Random random = new Random(41);
+        EndgameSolver solver = new EndgameSolver();
+        int exact = 0;
+        for (int empties=1; empties<=3; empties++) {
+            for (State board : endings(random, 12, empties)) {
+                String where = empties + " empty squares in\n" + board;
+                int rating = solver.solve(board, -EndgameSolver.INFINITY, EndgameSolver.INFINITY, 0);
+                if (!cutShort(board, 0)) assertTrue(where + "not exact", solver.exact());
+                if (solver.exact()) {
+                    exact++;
+                    assertEquals(where, bruteForce(board, 1), rating);
+                }
+            }
+        }
+        assertTrue("No exact solves", exact > 0);
+
+        // Player 1 can only jump into the corner, which takes every piece player 2 has and ends the game. With no
+        // jumps the position is rated as it stands, and with one every line is played to the end.
+        State board = new State();
+        for (int x=0; x<State.XSIZE; x++) {
+            for (int y=0; y<State.YSIZE; y++) board.setBoard(x, y, 1);
+        }
+        board.setBoard(0, 0, 0);
+        board.setBoard(0, 1, 2);
+        board.setBoard(1, 0, 2);
+        board.setBoard(1, 1, 2);
+        board.setTurn(1);
+        solver.solve(board, -EndgameSolver.INFINITY, EndgameSolver.INFINITY, 0);
+        assertTrue("A line left out a jump", !solver.exact());
+        solver.solveDeepening(board, 100000, EndgameSolver.NEVER);
+        assertTrue("Deepening found no exact solve", solver.exact());
+    }
+
+    /**
+     * With the whole window the solver finds the same result as trying every line, and a best move that achieves it.
+     */
+    @Test
+    public void solveMatchesBruteForce() {
+        Random random = new Random(13);
+        EndgameSolver solver = new EndgameSolver();
+        for (int empties=1; empties<=4; empties++) {
+            for (State board : endings(random, 12, empties)) {
+                State before = new State(board);
+                for (int jumps=0; jumps<=1; jumps++) {
+                    String where = empties + " empty squares, " + jumps + " jumps, in\n" + board;
+                    int expected = bruteForce(board, jumps);
+                    solver.clear();
+                    assertEquals(where, expected, solver.solve(board, -EndgameSolver.INFINITY,
+                            EndgameSolver.INFINITY, jumps));
+                    assertTrue(where + "the board was not put back", board.samePosition(before));
+
+                    int move = solver.bestMove();
+                    boolean jump = State.isJump(move);
+                    assertTrue(where + "best move " + Move.unpack(move) + " is not allowed",
+                            board.moveIsValid(Move.unpack(move)) && !(jump && (jumps == 0)));
+                    State.Undo undo = board.make(move, new State.Undo());
+                    assertEquals(where + "best move " + Move.unpack(move), expected,
+                            -bruteForce(board, jump ? jumps - 1 : jumps));
+                    board.unmake(undo);
+                }
+            }
+        }
+    }
+
+    /**
+     * With a narrow window the result is exact inside it, and a true bound outside it, also when the table holds
+     * results from other windows.
+     */
+    @Test
+    public void windowsGiveBounds() {
+        Random random = new Random(17);
+        EndgameSolver solver = new EndgameSolver();
+        for (State board : endings(random, 20, 3)) {
+            int expected = bruteForce(board, 1);
+            for (int alpha=expected - 3; alpha<=expected + 2; alpha++) {
+                int rating = solver.solve(board, alpha, alpha + 2, 1);
+                String where = "Window (" + alpha + ", " + (alpha + 2) + ") in\n" + board;
+                if (rating <= alpha) {
+                    assertTrue(where + expected + " is above the bound " + rating, expected <= rating);
+                } else if (rating >= alpha + 2) {
+                    assertTrue(where + expected + " is below the bound " + rating, expected >= rating);
+                } else {
+                    assertEquals(where, expected, rating);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deepening keeps the result of the most jumps it finished within its budget, which is what a single solve with
+     * that many jumps finds, and gives up on a budget too small for any solve.
+     */
+    @Test
+    public void deepeningKeepsLastFinishedSolve() {
+        Random random = new Random(19);
+        for (State board : endings(random, 10, 3)) {
+            EndgameSolver solver = new EndgameSolver();
+            int rating = solver.solveDeepening(board, 5000, EndgameSolver.NEVER);
+            assertTrue(rating != EndgameSolver.UNSOLVED);
+            assertTrue("Over budget", solver.nodes() <= 5001);
+            assertEquals("Solved with " + solver.jumps() + " jumps in\n" + board, new EndgameSolver().solve(board,
+                    -EndgameSolver.INFINITY, EndgameSolver.INFINITY, solver.jumps()), rating);
+
+            assertEquals(EndgameSolver.UNSOLVED, new EndgameSolver().solveDeepening(board, 1, EndgameSolver.NEVER));
+        }
+    }
+}
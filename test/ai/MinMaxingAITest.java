@@ -0,0 +1,392 @@
+package ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import model.Move;
+import model.MoveList;
+import model.State;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the search itself, run on the searchers directly so that they can be stopped at a chosen point.
+ */
+public class MinMaxingAITest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Plays random moves from the starting position.
+     * @param random Where the moves come from.
+     * @param moves How many moves to play, unless the game ends first.
+     * @return The position reached.
+     */
+    static State randomPosition(Random random, int moves) {
+        State board = new State();
+        board.setBoard(0, 0, 1);
+        board.setBoard(0, 9, 2);
+        board.setBoard(9, 0, 2);
+        board.setBoard(9, 9, 1);
+        for (int i=0; i<moves; i++) {
+            List<Move> valid = board.validMoves();
+            if (valid.isEmpty()) break;
+            board = board.afterMove(valid.get(random.nextInt(valid.size())));
+        }
+        return board;
+    }
+
+    /**
+     * A cache snapshot is only loaded by an AI searching with the same selective search and quiescence settings as
+     * the one that saved it, since those change what the search stores.
+     */
+    @Test
+    public void snapshotOnlyLoadsWithSameSearchSettings() throws IOException {
+        State board = randomPosition(new Random(43), 10);
+        Path file = folder.getRoot().toPath().resolve("advanced.tt");
+        Advanced saver = new Advanced();
+        saver.setOpeningBook(null);
+        saver.setDepth(3);
+        saver.setLateMoveReductions(true);
+        saver.setCacheSnapshot(file, 0);
+        saver.nextMove(board);
+        saver.saveCacheSnapshot();
+
+        Advanced same = new Advanced();
+        same.setLateMoveReductions(true);
+        same.setCacheSnapshot(file, 0);
+        same.loadCacheSnapshot(board);
+        assertTrue("The snapshot was not loaded", same.cache.size() > 0);
+
+        List<Advanced> others = new ArrayList<>();
+        others.add(new Advanced());
+        others.add(new Advanced());
+        others.get(1).setLateMoveReductions(true);
+        others.get(1).setFutilityPruning(true);
+        others.add(new Advanced());
+        others.get(2).setLateMoveReductions(true);
+        others.get(2).setQuiescence(MinMaxingAI.QUIESCENCE_INFECTS);
+        for (Advanced other : others) {
+            other.setCacheSnapshot(file, 0);
+            other.loadCacheSnapshot(board);
+            assertEquals("A snapshot made with other settings was loaded", 0, other.cache.size());
+        }
+    }
+
+    @Test
+    public void ponderHitWithNoMoveFoundPlaysAValidMoveAndLoadsTheSnapshot() throws IOException {
+        State board = randomPosition(new Random(47), 10);
+        Path file = folder.getRoot().toPath().resolve("advanced.tt");
+        Advanced saver = new Advanced();
+        saver.setOpeningBook(null);
+        saver.setDepth(3);
+        saver.setCacheSnapshot(file, 0);
+        saver.nextMove(board);
+        saver.saveCacheSnapshot();
+
+        // As if pondering had searched this position to the full depth and rated every move the worst there is.
+        Advanced ai = new Advanced();
+        ai.setOpeningBook(null);
+        ai.setDepth(3);
+        ai.setCacheSnapshot(file, 0);
+        ai.ponderBoard = new State(board);
+        ai.ponderDepth = 3;
+        ai.ponderBest = 0;
+        Move move = ai.nextMove(board);
+        assertTrue("The ponder hit played an invalid move", board.moveIsValid(move));
+        assertTrue("The ponder hit skipped loading the snapshot", ai.snapshotLoaded);
+    }
+
+    @Test
+    public void cacheIsClearedWhenTheSideSearchedForChanges() {
+        Advanced ai = new Advanced();
+        ai.setOpeningBook(null);
+        ai.setDepth(3);
+        State board = State.start();
+        ai.nextMove(board);
+        assertTrue("The search cached nothing", ai.cache.size() > 0);
+        ai.playAs(1);
+        assertTrue("The cache was cleared with the side unchanged", ai.cache.size() > 0);
+
+        // A new game from the other side: every rating in the cache is from the wrong point of view.
+        ai.playAs(2);
+        assertEquals("The cache kept ratings for the other side", 0, ai.cache.size());
+    }
+
+    /**
+     * Makes a position where player 1 is to move and stuck: the empty squares are in a corner that only player 2's
+     * pieces are near, and player 1's pieces are scattered over the rest of the board.
+     * @param random Where player 1's squares come from.
+     * @param empties How many empty squares, from 1 to 10.
+     * @param stuckPieces How many pieces player 1 has, at least 1. Past the squares left over, player 1 gets them all.
+     * @return The position.
+     */
+    static State stuckPosition(Random random, int empties, int stuckPieces) {
+        State board = new State();
+        List<int[]> rest = new ArrayList<>();
+        for (int x=0; x<State.XSIZE; x++) {
+            for (int y=0; y<State.YSIZE; y++) {
+                if ((x == 0) && (y < empties)) continue;
+                if ((x <= 2) && (y <= empties + 1)) board.setBoard(x, y, 2); else rest.add(new int[] { x, y });
+            }
+        }
+        Collections.shuffle(rest, random);
+        for (int i=0; i<rest.size(); i++) {
+            board.setBoard(rest.get(i)[0], rest.get(i)[1], (i < stuckPieces) ? 1 : 2);
+        }
+        board.setTurn(1);
+        assertTrue(!board.hasValidMoves());
+        return board;
+    }
+
+    /**
+     * When the player to move is stuck, the search and the endgame solver it hands over to agree on who has won: the
+     * other player claims the empty squares.
+     */
+    @Test
+    public void searchAndSolverAgreeOnStuckPositions() {
+        Random random = new Random(47);
+        EndgameSolver solver = new EndgameSolver();
+        Advanced ai = new Advanced();
+        for (int empties=1; empties<=3; empties++) {
+            for (int stuckPieces=1; stuckPieces<=85; stuckPieces++) {
+                State board = stuckPosition(random, empties, stuckPieces);
+
+                int margin = solver.solve(board, -EndgameSolver.INFINITY, EndgameSolver.INFINITY, 0);
+                for (int us=1; us<=2; us++) {
+                    ai.us = us;
+                    ai.them = 3 - us;
+                    MinMaxingAI.Searcher searcher = ai.searchers[0];
+                    searcher.prepare(board, 1, 1, false);
+                    int ourMargin = (us == 1) ? margin : -margin;
+                    assertEquals("Rated for player " + us + " in\n" + board, (ourMargin > 0) ? 9998 : 0,
+                            searcher.ratePosition(0, -9999, 9999));
+                }
+            }
+        }
+    }
+
+    /**
+     * A node where the player to move is stuck gets the game's result, a win or a loss, and not a rating beyond any
+     * win, whoever is stuck.
+     */
+    @Test
+    public void stuckNodeGetsTheGameResult() {
+        Random random = new Random(53);
+        Advanced ai = new Advanced();
+        for (int stuckPieces : new int[] { 10, 90 }) {
+            State board = stuckPosition(random, 2, stuckPieces);
+            for (int us=1; us<=2; us++) {
+                ai.us = us;
+                ai.them = 3 - us;
+                MinMaxingAI.Searcher searcher = ai.searchers[0];
+                searcher.prepare(board, 1, 1, false);
+                boolean won = (us == 1) == (stuckPieces > 50);
+                assertEquals("Player " + us + " with " + stuckPieces + " stuck pieces", won ? 9998 : 0,
+                        searcher.moveSearch(1, -9999, 9999));
+            }
+        }
+    }
+
+    /**
+     * A player with no valid move gets no move, rather than an exception.
+     */
+    @Test
+    public void nextMoveWithNoValidMovesReturnsNull() {
+        State board = new State();
+        board.setBoard(0, 0, 1);
+        board.setBoard(5, 5, 2);
+        for (int x=0; x<State.XSIZE; x++) {
+            for (int y=0; y<State.YSIZE; y++) {
+                if (board.pieceAt(x, y) == 0) board.setBoard(x, y, ((x + y) % 2 == 0) ? 1 : 2);
+            }
+        }
+        assertTrue("The board should be full", !board.hasValidMoves());
+        assertNull(new Advanced().nextMove(board));
+    }
+
+    /**
+     * A cancel() made while nextMove() waits for the ponder search to stop still stops the move, rather than being
+     * taken for the stop of the ponder search and forgotten.
+     */
+    @Test
+    public void cancelWhileStoppingPonderingStopsTheMove() {
+        State board = randomPosition(new Random(31), 12);
+        Advanced ai = new Advanced() {
+            boolean sent;
+
+            @Override
+            boolean outOfBudget(Searcher searcher) {
+                // The ponder search sees the stop, and the cancel comes in before it has finished.
+                if (ponderSearch && ponderStopped && !sent) {
+                    sent = true;
+                    cancel();
+                }
+                return super.outOfBudget(searcher);
+            }
+        };
+        ai.setOpeningBook(null);
+        ai.setDepth(3);
+        Move first = ai.nextMove(board);
+        State after = board.afterMove(first);
+        ai.setDepth(9);
+        ai.ponder(after);
+        assertTrue("Nothing to ponder", ai.pondering != null);
+
+        MoveList replies = new MoveList();
+        after.generateMoves(replies);
+        State played = after.afterMove(Move.unpack(replies.get(replies.size() - 1)));
+        if (played.samePosition(ai.ponderBoard)) played = after.afterMove(Move.unpack(replies.get(0)));
+        Move move = ai.nextMove(played);
+        assertTrue(played.moveIsValid(move));
+        assertTrue("The cancel was lost", ai.lastMetrics().getDepth() < 9);
+    }
+
+    /**
+     * A cancel() only stops what was asked for before it, so the next move is searched in full.
+     */
+    @Test
+    public void cancelDoesNotStopTheNextMove() {
+        State board = randomPosition(new Random(37), 12);
+        Advanced ai = new Advanced();
+        ai.setOpeningBook(null);
+        ai.setDepth(3);
+        ai.cancel();
+        Move move = ai.nextMove(board);
+        assertTrue(board.moveIsValid(move));
+        assertEquals(3, ai.lastMetrics().getDepth());
+    }
+
+    /**
+     * Lazy SMP stops the helpers as soon as the main searcher is done, wherever they are. Whatever a helper was in
+     * the middle of must not reach the cache, which the other searchers and later moves trust.
+     */
+    @Test
+    public void stoppedHelperLeavesNothingFromItsUnfinishedIteration() {
+        Random random = new Random(11);
+        int stoppedMidIteration = 0;
+        for (int run=0; run<30; run++) {
+            State board = randomPosition(random, 4 + random.nextInt(40));
+            if (!board.hasValidMoves()) continue;
+            int stopAt = 2000 + random.nextInt(20000);
+            Advanced advanced = new Advanced();
+            MinMaxingAI ai = new MinMaxingAI(7) {
+                int calls;
+
+                @Override
+                public int heuristic(State toBoard, int us, int them) {
+                    // Stop the helper the way search() does, partway through an iteration.
+                    if (++calls == stopAt) stopped = true;
+                    return advanced.heuristic(toBoard, us, them);
+                }
+            };
+            MinMaxingAI.Searcher helper = ai.searchers[0];
+            int[] storedWhileAborted = new int[1];
+            ai.cache = new TranspositionTable(4) {
+                @Override
+                public void store(long key, int move, int score, int depth, int bound, int empties) {
+                    if (helper.aborted) storedWhileAborted[0]++;
+                    super.store(key, move, score, depth, bound, empties);
+                }
+            };
+            ai.us = board.whoseTurn();
+            ai.them = board.whoseNotTurn();
+            helper.prepare(board, 1, 7, true);
+            helper.run();
+            if (!helper.aborted) continue;
+            stoppedMidIteration++;
+
+            assertEquals("Entries stored after the helper was stopped", 0, storedWhileAborted[0]);
+            // The unfinished iteration can only have rated the root if an aspiration search finished outside its
+            // window, which leaves a bound, and the search again with a wider window was stopped.
+            long root = ai.cache.probe(ai.zobristHash(board));
+            assertTrue("The unfinished iteration rated the root exactly", (root == 0)
+                    || (TranspositionTable.depth(root) <= helper.completedDepth)
+                    || (TranspositionTable.bound(root) != TranspositionTable.EXACT));
+        }
+        assertTrue("No helper was stopped mid-iteration", stoppedMidIteration > 0);
+    }
+
+    /**
+     * Positions where a move can switch the heuristics that change their rating by who has more pieces (Advanced) or
+     * by how full the board is (Beginner). A futility margin that only allows for a point or two a piece is wrong
+     * there.
+     */
+    static List<State> regimeCrossingPositions() {
+        Random random = new Random(5);
+        List<State> positions = new ArrayList<>();
+        while (positions.size() < 40) {
+            State board = randomPosition(random, 2 + random.nextInt(50));
+            if (!board.hasValidMoves()) continue;
+            int difference = Math.abs(board.countPieces(1) - board.countPieces(2));
+            int empties = board.countPieces(0);
+            if (((difference <= 2) && (empties > 20)) || ((empties >= 75) && (empties <= 78))) positions.add(board);
+        }
+        return positions;
+    }
+
+    /**
+     * Futility pruning only skips moves it can prove don't matter, so the rating it finds at the horizon must still
+     * be a true bound on the rating found without it.
+     */
+    @Test
+    public void futilityPruningOnlyPrunesWhatCantMatter() {
+        List<State> positions = regimeCrossingPositions();
+        List<Supplier<MinMaxingAI>> ais = Arrays.asList(Advanced::new, Beginner::new, Intermediate::new,
+                Aggressive::new, Defensive::new);
+        long prunes = 0;
+        for (Supplier<MinMaxingAI> make : ais) {
+            MinMaxingAI ai = make.get();
+            ai.setQuiescence(0);
+            // Every search starts afresh, rather than from what the last one stored.
+            ai.cache = new TranspositionTable(1) {
+                @Override
+                public long probe(long key) {
+                    return 0;
+                }
+            };
+            for (State board : positions) {
+                ai.us = board.whoseTurn();
+                ai.them = board.whoseNotTurn();
+                MinMaxingAI.Searcher searcher = ai.searchers[0];
+                searcher.prepare(board, 1, 2, false);
+                MoveList moves = new MoveList();
+                board.generateMoves(moves);
+                for (int i=0; i<moves.size(); i++) {
+                    int packed = moves.get(i);
+                    // Levels 1 and 2 after the move reach the nodes whose moves are rated by the heuristic.
+                    for (int level=1; level<=2; level++) {
+                        ai.setFutilityPruning(false);
+                        int exact = searcher.rateMove(packed, level, -9999, 9999);
+                        ai.setFutilityPruning(true);
+                        for (int alpha=exact - 10; alpha<=exact + 10; alpha++) {
+                            searcher.futilityPrunes = 0;
+                            int rating = searcher.rateMove(packed, level, alpha, alpha + 1);
+                            prunes += searcher.futilityPrunes;
+                            String where = ai.getClass().getSimpleName() + " after " + Move.unpack(packed)
+                                    + " to level " + level + " with a null window at " + alpha + " in\n" + board;
+                            // A null window has nothing inside it, so the rating is always a bound on the true one.
+                            if (rating <= alpha) {
+                                assertTrue(where + exact + " is above the bound " + rating, exact <= rating);
+                            } else {
+                                assertTrue(where + exact + " is below the bound " + rating, exact >= rating);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue("Nothing was pruned", prunes > 0);
+    }
+}
@@ -0,0 +1,134 @@
+package ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import model.Move;
+import model.State;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of looking moves up in an opening book, and of playing them.
+ */
+public class OpeningBookTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes a book file the way tools.BookGenerator does.
+     * @param file The file to write.
+     * @param keys The keys of the positions, in order.
+     * @param moves The packed move for each position.
+     * @param depths The depth each position was searched to.
+     */
+    static void write(Path file, long[] keys, int[] moves, int[] depths) throws IOException {
+        try (DataOutputStream data = new DataOutputStream(Files.newOutputStream(file))) {
+            data.writeInt(OpeningBook.MAGIC);
+            data.writeInt(OpeningBook.VERSION);
+            data.writeInt(keys.length);
+            data.writeInt(7);
+            for (int i=0; i<keys.length; i++) {
+                data.writeLong(keys[i]);
+                data.writeInt(moves[i]);
+                data.writeShort(0);
+                data.writeShort(depths[i]);
+            }
+        }
+    }
+
+    /**
+     * Every position in the book is found, whatever the sign of its key, and positions that aren't in it, or weren't
+     * searched deep enough, are not.
+     */
+    @Test
+    public void probeFindsEveryEntry() throws IOException {
+        Random random = new Random(23);
+        long[] keys = new long[501];
+        for (int i=0; i<keys.length; i++) keys[i] = random.nextLong();
+        Arrays.sort(keys);
+        int[] moves = new int[keys.length];
+        int[] depths = new int[keys.length];
+        for (int i=0; i<keys.length; i++) {
+            moves[i] = 1 + random.nextInt((1 << 14) - 1);
+            depths[i] = 1 + random.nextInt(9);
+        }
+        Path file = folder.newFile("test.book").toPath();
+        write(file, keys, moves, depths);
+
+        OpeningBook book = OpeningBook.open(file);
+        assertEquals(keys.length, book.size());
+        assertEquals(7, book.depth());
+        for (int i=0; i<keys.length; i++) {
+            assertEquals("Entry " + i, moves[i], book.probe(keys[i], 0));
+            assertEquals("Entry " + i + " at its own depth", moves[i], book.probe(keys[i], depths[i]));
+            assertEquals("Entry " + i + " deeper than it was searched", 0, book.probe(keys[i], depths[i] + 1));
+            // Keys between two entries are not in the book.
+            if ((i > 0) && (keys[i] - 1 != keys[i - 1])) assertEquals(0, book.probe(keys[i] - 1, 0));
+        }
+        assertEquals(0, book.probe(Long.MIN_VALUE, 0));
+        assertEquals(0, book.probe(Long.MAX_VALUE, 0));
+    }
+
+    /**
+     * An empty book and a broken file are handled: the first finds nothing, the second is refused.
+     */
+    @Test
+    public void emptyAndBrokenBooks() throws IOException {
+        Path empty = folder.newFile("empty.book").toPath();
+        write(empty, new long[0], new int[0], new int[0]);
+        assertEquals(0, OpeningBook.open(empty).probe(0, 0));
+
+        Path full = folder.newFile("full.book").toPath();
+        write(full, new long[] { 1, 2 }, new int[] { 3, 4 }, new int[] { 5, 6 });
+        byte[] bytes = Files.readAllBytes(full);
+        Path truncated = folder.newFile("truncated.book").toPath();
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> OpeningBook.open(truncated));
+        Path garbage = folder.newFile("garbage.book").toPath();
+        Files.write(garbage, new byte[32]);
+        assertThrows(IOException.class, () -> OpeningBook.open(garbage));
+    }
+
+    /**
+     * An AI plays the book move for a position in its book without searching, and searches as usual when the book
+     * doesn't know the position or its move isn't valid there.
+     */
+    @Test
+    public void aiPlaysBookMove() throws IOException {
+        State board = new State();
+        board.setBoard(0, 0, 1);
+        board.setBoard(0, 9, 2);
+        board.setBoard(9, 0, 2);
+        board.setBoard(9, 9, 1);
+        // A jump, which gains nothing, so that the move is clearly the book's.
+        Move jump = new Move(0, 0, 2, 2);
+        State other = board.afterMove(new Move(0, 0, 1, 1));
+        long[] keys = { board.zobristKey(), other.zobristKey() };
+        int[] moves = { jump.packed(), jump.packed() };
+        Arrays.sort(keys);
+        Path file = folder.newFile("ai.book").toPath();
+        write(file, keys, moves, new int[] { 7, 7 });
+
+        Advanced ai = new Advanced();
+        ai.setDepth(1);
+        ai.setOpeningBook(OpeningBook.open(file));
+        Move played = ai.nextMove(board);
+        assertEquals(jump.packed(), played.packed());
+        assertTrue("Not reported as a book hit", ai.lastMetrics().isBookHit());
+
+        // Player 2 is to move here, and has no piece at (0, 0).
+        Move searched = ai.nextMove(other);
+        assertTrue(other.moveIsValid(searched));
+        assertTrue("Reported as a book hit", !ai.lastMetrics().isBookHit());
+    }
+}
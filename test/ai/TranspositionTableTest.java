@@ -0,0 +1,221 @@
+package ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the transposition table on its own: what it gives back, what it keeps when positions compete for a bucket,
+ * and its snapshot files.
+ */
+public class TranspositionTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Keys that differ only above the bits a 1MB table uses to pick a bucket, so they all share one.
+    static final long KEY = 0x1234L;
+    static final long SAME_BUCKET = 1L << 20;
+
+    /**
+     * Each kind of bound comes back as it was stored, with its rating, move, depth and empty squares, whatever the
+     * sign of the rating.
+     */
+    @Test
+    public void storedBoundsComeBack() {
+        TranspositionTable table = new TranspositionTable(1);
+        int[] bounds = { TranspositionTable.EXACT, TranspositionTable.LOWER, TranspositionTable.UPPER };
+        int[] scores = { 0, 9999, -9999, 37, -37 };
+        long key = 1;
+        for (int bound : bounds) {
+            for (int score : scores) {
+                key = key * 6364136223846793005L + 1442695040888963407L;
+                table.store(key, 1234, score, 7, bound, 55);
+                long entry = table.probe(key);
+                assertEquals(bound, TranspositionTable.bound(entry));
+                assertEquals(score, TranspositionTable.score(entry));
+                assertEquals(1234, TranspositionTable.move(entry));
+                assertEquals(7, TranspositionTable.depth(entry));
+                assertEquals(55, TranspositionTable.empties(entry));
+            }
+        }
+        assertEquals("A key never stored was found", 0, table.probe(42));
+    }
+
+    /**
+     * Storing a position again replaces what was there, even with a shallower search or a different bound.
+     */
+    @Test
+    public void samePositionIsReplaced() {
+        TranspositionTable table = new TranspositionTable(1);
+        table.store(KEY, 1, 10, 8, TranspositionTable.LOWER, 50);
+        table.store(KEY, 2, 4, 3, TranspositionTable.UPPER, 50);
+        long entry = table.probe(KEY);
+        assertEquals(TranspositionTable.UPPER, TranspositionTable.bound(entry));
+        assertEquals(4, TranspositionTable.score(entry));
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(1, table.size());
+    }
+
+    /**
+     * Within one search, the deepest entry of a bucket stays, and shallower positions take turns in the other slot.
+     */
+    @Test
+    public void deepestEntryStaysWithinASearch() {
+        TranspositionTable table = new TranspositionTable(1);
+        long deep = KEY;
+        long shallow = KEY ^ SAME_BUCKET;
+        long shallower = KEY ^ (2 * SAME_BUCKET);
+        table.store(deep, 1, 0, 9, TranspositionTable.EXACT, 50);
+        table.store(shallow, 2, 0, 4, TranspositionTable.EXACT, 50);
+        assertTrue(table.probe(deep) != 0);
+        assertTrue(table.probe(shallow) != 0);
+        assertTrue("Bucket not full", table.collides(KEY ^ (3 * SAME_BUCKET)));
+
+        table.store(shallower, 3, 0, 2, TranspositionTable.EXACT, 50);
+        assertEquals("The deep entry was replaced", 9, TranspositionTable.depth(table.probe(deep)));
+        assertEquals("The last entry stored is missing", 3, TranspositionTable.move(table.probe(shallower)));
+        assertEquals("The always-replace slot kept its old entry", 0, table.probe(shallow));
+    }
+
+    /**
+     * An entry left over from an earlier search gives way, however deep it was.
+     */
+    @Test
+    public void earlierSearchGivesWay() {
+        TranspositionTable table = new TranspositionTable(1);
+        long old = KEY;
+        long other = KEY ^ SAME_BUCKET;
+        long newer = KEY ^ (2 * SAME_BUCKET);
+        table.store(old, 1, 0, 9, TranspositionTable.EXACT, 50);
+        table.store(other, 2, 0, 5, TranspositionTable.EXACT, 50);
+        table.newSearch();
+        table.store(newer, 3, 0, 1, TranspositionTable.EXACT, 50);
+        assertEquals("The old deep entry kept its slot", 0, table.probe(old));
+        assertEquals(3, TranspositionTable.move(table.probe(newer)));
+        assertEquals(2, TranspositionTable.move(table.probe(other)));
+    }
+
+    /**
+     * Pruning hides positions with more empty squares than the threshold, and their slots are reused first. Raising
+     * the threshold again brings back the ones not reused.
+     */
+    @Test
+    public void pruneHidesAndRestores() {
+        TranspositionTable table = new TranspositionTable(1);
+        table.store(KEY, 1, 0, 9, TranspositionTable.EXACT, 60);
+        table.store(KEY + 1, 2, 0, 1, TranspositionTable.EXACT, 40);
+        table.prune(50);
+        assertEquals(0, table.probe(KEY));
+        assertTrue(table.probe(KEY + 1) != 0);
+        assertEquals(1, table.size());
+        assertTrue("A dead entry should not collide", !table.collides(KEY ^ SAME_BUCKET));
+
+        table.prune(70);
+        assertEquals(9, TranspositionTable.depth(table.probe(KEY)));
+        assertEquals(2, table.size());
+
+        table.prune(50);
+        table.store(KEY ^ SAME_BUCKET, 3, 0, 1, TranspositionTable.EXACT, 45);
+        table.prune(70);
+        assertEquals("The dead entry's slot was not reused", 0, table.probe(KEY));
+    }
+
+    /**
+     * Fills a table with random entries.
+     * @param table The table.
+     * @param random Where the entries come from.
+     * @param count How many to store.
+     */
+    static void fill(TranspositionTable table, Random random, int count) {
+        for (int i=0; i<count; i++) {
+            int bound = 1 + random.nextInt(3);
+            table.store(random.nextLong(), random.nextInt(1 << 14), random.nextInt(2001) - 1000, random.nextInt(20),
+                    bound, random.nextInt(101));
+        }
+    }
+
+    /**
+     * A snapshot loaded into an empty table gives back every entry it saved, as if stored by the current search.
+     */
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        TranspositionTable table = new TranspositionTable(1);
+        fill(table, new Random(7), 5000);
+        Path file = folder.getRoot().toPath().resolve("sub").resolve("table.tt");
+        int saved = table.save(file, 99);
+        assertEquals(table.size(), saved);
+        assertEquals(TranspositionTable.SNAPSHOT_HEADER_BYTES + (long) saved * TranspositionTable.SLOT_BYTES,
+                Files.size(file));
+
+        TranspositionTable loaded = new TranspositionTable(1);
+        for (int i=0; i<3; i++) loaded.newSearch();
+        assertEquals(saved, loaded.load(file, 99, 100));
+        assertEquals(saved, loaded.size());
+        for (int slot=0; slot<table.entries.length; slot++) {
+            long entry = table.entries[slot];
+            if (entry == 0) continue;
+            long key = table.keys[slot] ^ entry;
+            long back = loaded.probe(key);
+            assertEquals(TranspositionTable.move(entry), TranspositionTable.move(back));
+            assertEquals(TranspositionTable.score(entry), TranspositionTable.score(back));
+            assertEquals(TranspositionTable.depth(entry), TranspositionTable.depth(back));
+            assertEquals(TranspositionTable.bound(entry), TranspositionTable.bound(back));
+            assertEquals(TranspositionTable.empties(entry), TranspositionTable.empties(back));
+            assertEquals(3, TranspositionTable.age(back));
+        }
+    }
+
+    /**
+     * Loading leaves out positions that can't be reached from the current one, and a snapshot made for something
+     * else.
+     */
+    @Test
+    public void snapshotLoadFilters() throws IOException {
+        TranspositionTable table = new TranspositionTable(1);
+        fill(table, new Random(8), 2000);
+        Path file = folder.newFile("table.tt").toPath();
+        table.save(file, 5);
+
+        int reachable = 0;
+        for (long entry : table.entries) {
+            if ((entry != 0) && (TranspositionTable.empties(entry) <= 30)) reachable++;
+        }
+        TranspositionTable loaded = new TranspositionTable(1);
+        assertEquals(reachable, loaded.load(file, 5, 30));
+        assertEquals(reachable, loaded.size());
+
+        TranspositionTable other = new TranspositionTable(1);
+        assertEquals("A snapshot with another tag was loaded", -1, other.load(file, 6, 100));
+        assertEquals(0, other.size());
+    }
+
+    /**
+     * A file that isn't a whole snapshot is refused rather than half read.
+     */
+    @Test
+    public void brokenSnapshotIsRefused() throws IOException {
+        TranspositionTable table = new TranspositionTable(1);
+        fill(table, new Random(9), 100);
+        Path file = folder.newFile("table.tt").toPath();
+        table.save(file, 1);
+        byte[] bytes = Files.readAllBytes(file);
+
+        Path truncated = folder.newFile("truncated.tt").toPath();
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 8));
+        assertThrows(IOException.class, () -> new TranspositionTable(1).load(truncated, 1, 100));
+
+        Path garbage = folder.newFile("garbage.tt").toPath();
+        Files.write(garbage, new byte[64]);
+        assertThrows(IOException.class, () -> new TranspositionTable(1).load(garbage, 1, 100));
+    }
+}
@@ -0,0 +1,112 @@
+package model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests of the incremental state kept by State: the Zobrist keys and piece counts that make() and unmake() update
+ * rather than work out again.
+ */
+public class StateTest {
+
+    /**
+     * Builds a position from nothing but its pieces and whose turn it is, so that its key and counts are worked out
+     * from scratch rather than by make().
+     * @param board The position to copy.
+     * @return A new State with the same pieces and player to move.
+     */
+    static State rebuilt(State board) {
+        State fresh = new State();
+        for (int x=0; x<State.XSIZE; x++) {
+            for (int y=0; y<State.YSIZE; y++) {
+                fresh.setBoard(x, y, board.pieceAt(x, y));
+            }
+        }
+        fresh.setTurn(board.whoseTurn());
+        return fresh;
+    }
+
+    /**
+     * Checks the counts of a position against its pieces.
+     * @param where What to report if they differ.
+     * @param board The position.
+     */
+    static void assertCounts(String where, State board) {
+        int[] counts = new int[3];
+        for (int x=0; x<State.XSIZE; x++) {
+            for (int y=0; y<State.YSIZE; y++) {
+                counts[board.pieceAt(x, y)]++;
+            }
+        }
+        for (int player=0; player<=2; player++) {
+            assertEquals(where + "count of " + player, counts[player], board.countPieces(player));
+        }
+    }
+
+    /**
+     * Every move of a number of random games is made and taken back. After make() the key and counts must be those of
+     * the position built from scratch, and after unmake() the position must be exactly as it was.
+     */
+    @Test
+    public void makeAndUnmakeKeepKeysAndCounts() {
+        Random random = new Random(3);
+        State.Undo undo = new State.Undo();
+        MoveList moves = new MoveList();
+        int checked = 0;
+        for (int game=0; game<10; game++) {
+            State board = new State();
+            board.setBoard(0, 0, 1);
+            board.setBoard(0, 9, 2);
+            board.setBoard(9, 0, 2);
+            board.setBoard(9, 9, 1);
+            if (game % 2 == 1) board.trackSymmetries();
+            while (board.hasValidMoves()) {
+                State before = new State(board);
+                board.generateMoves(moves);
+                for (int i=0; i<moves.size(); i++) {
+                    int move = moves.get(i);
+                    String where = "After " + Move.unpack(move) + " in\n" + before;
+                    board.make(move, undo);
+                    State expected = rebuilt(board);
+                    assertEquals(where + "key", expected.zobristKey(), board.zobristKey());
+                    assertCounts(where, board);
+                    if (game % 2 == 1) {
+                        expected.trackSymmetries();
+                        for (int s=0; s<State.SYMMETRIES; s++) {
+                            assertEquals(where + "key of symmetry " + s, expected.symmetricKey(s),
+                                    board.symmetricKey(s));
+                        }
+                    }
+                    board.unmake(undo);
+                    assertTrue(where + "the position was not put back", board.samePosition(before));
+                    assertCounts(where + "taking it back, ", board);
+                    for (int s=0; (game % 2 == 1) && (s<State.SYMMETRIES); s++) {
+                        assertEquals(where + "taking it back, key of symmetry " + s, before.symmetricKey(s),
+                                board.symmetricKey(s));
+                    }
+                    checked++;
+                }
+                board.make(moves.get(random.nextInt(moves.size())), undo);
+            }
+        }
+        assertTrue("Too few moves checked", checked > 1000);
+    }
+
+    /**
+     * The key covers whose turn it is, so the same pieces with the other player to move are a different position.
+     */
+    @Test
+    public void keyDependsOnWhoseTurn() {
+        State board = new State();
+        board.setBoard(0, 0, 1);
+        board.setBoard(9, 9, 2);
+        long key = board.zobristKey();
+        board.setTurn(2);
+        assertTrue("Turn not in the key", board.zobristKey() != key);
+        board.setTurn(1);
+        assertEquals(key, board.zobristKey());
+    }
+}